@@ -0,0 +1,123 @@
+package org.example.benchmark;
+
+import org.example.Config;
+import org.example.Main;
+import org.example.Options;
+import org.example.model.Hour;
+import org.example.model.ProgramRequest;
+import org.example.model.ProgramStatus;
+import org.example.service.AdmissionMode;
+import org.example.service.ConcurrencyMode;
+import org.example.service.MedicalServiceImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares booking throughput of every locking and admission mode, calling the service directly
+ * from the same number of threads the server would use for its workers.
+ * Each run is repeated for every capacity per pair given as argument, 0 keeping the capacities of config.txt.
+ * By default it runs with 100 clients per pair, which fill up during the run so the refusals and the retries of the
+ * lock free admission are measured, and with capacities too large to ever fill, where every booking goes the whole path.
+ * Run from the project root so config.txt is found: mvn -P benchmarks package && java -cp target/benchmarks.jar org.example.benchmark.LockingBenchmark [capacity...]
+ */
+public class LockingBenchmark {
+
+    private static final int[] THREAD_COUNTS = {8, 16, 32};
+    private static final int REQUESTS_PER_THREAD = 20_000;
+    private static final int[] DEFAULT_CAPACITIES = {100, 1_000_000_000};
+
+    public static void main(String[] args) throws Exception {
+        var fileConfig = Main.loadConfig();
+        if (fileConfig == null) {
+            throw new RuntimeException("Couldn't read config");
+        }
+        var capacities = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : DEFAULT_CAPACITIES;
+        var allOptions = new ArrayList<Options>();
+        for (var concurrencyMode : ConcurrencyMode.values()) {
+            for (var admissionMode : AdmissionMode.values()) {
+                var options = new Options();
+                options.setConcurrencyMode(concurrencyMode);
+                options.setAdmissionMode(admissionMode);
+                allOptions.add(options);
+            }
+        }
+        for (var capacity : capacities) {
+            var config = withCapacity(fileConfig, capacity);
+            // warm up every path before measuring
+            for (var options : allOptions) {
+                run(config, options, 8);
+            }
+            for (var threads : THREAD_COUNTS) {
+                for (var options : allOptions) {
+                    var result = run(config, options, threads);
+                    System.out.printf("capacity: %s ; %-8s %-9s threads: %2d ; %,12.0f requests/s ; admitted: %5.1f%%%n",
+                            capacity == 0 ? "config" : capacity, options.getConcurrencyMode(), options.getAdmissionMode(),
+                            threads, result.requestsPerSecond(), result.admittedPercent());
+                }
+            }
+        }
+    }
+
+    private static Config withCapacity(Config config, int capacity) {
+        if (capacity == 0) {
+            return config;
+        }
+        var maxClients = new Integer[config.getNumberOfLocations()][config.getNumberOfTreatments()];
+        for (var row : maxClients) {
+            Arrays.fill(row, capacity);
+        }
+        return new Config(config.getNumberOfLocations(), config.getNumberOfTreatments(),
+                config.getTreatmentsCost(), config.getTreatmentsDuration(), maxClients);
+    }
+
+    private static Result run(Config config, Options options, int threads) throws Exception {
+        try (var service = new MedicalServiceImpl(config, options)) {
+            return run(service, config, threads);
+        }
+    }
+
+    private static Result run(MedicalServiceImpl service, Config config, int threads) throws Exception {
+        var start = new CountDownLatch(1);
+        var admitted = new AtomicLong();
+        var workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            var cnp = "cnp" + t;
+            var worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                var random = ThreadLocalRandom.current();
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    var request = new ProgramRequest("Client", cnp,
+                            random.nextInt(config.getNumberOfLocations()),
+                            random.nextInt(config.getNumberOfTreatments()),
+                            new Hour(random.nextInt(10, 18), random.nextInt(60)));
+                    var response = service.processProgramRequest(request);
+                    if (response.getStatus() == ProgramStatus.SUCCESS) {
+                        admitted.incrementAndGet();
+                        service.processPayment(response.getBookingId());
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        var begin = System.nanoTime();
+        start.countDown();
+        for (var worker : workers) {
+            worker.join();
+        }
+        var seconds = (System.nanoTime() - begin) / 1e9;
+        var requests = threads * (double) REQUESTS_PER_THREAD;
+        return new Result(requests / seconds, 100 * admitted.get() / requests);
+    }
+
+    private record Result(double requestsPerSecond, double admittedPercent) {
+    }
+}
@@ -0,0 +1,204 @@
+package org.example.benchmark;
+
+import org.example.Config;
+import org.example.Main;
+import org.example.Options;
+import org.example.model.Hour;
+import org.example.model.ProgramRequest;
+import org.example.model.ProgramResponse;
+import org.example.model.ProgramStatus;
+import org.example.model.Response;
+import org.example.service.ConcurrencyMode;
+import org.example.service.Durability;
+import org.example.service.MedicalServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JMH benchmarks of the booking, payment, cancellation and verification paths, calling the service directly.
+ * Costs and durations of the treatments come from config.txt, the capacity is made large enough that bookings
+ * keep being admitted. Single threaded by default, contended with -t or through the "contended" group.
+ * Build and run from the project root:
+ * mvn -P benchmarks package && java -jar target/benchmarks.jar MedicalServiceBenchmark -p bookings=1000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MedicalServiceBenchmark {
+
+    private static final int CAPACITY = 1_000_000_000;
+    private static final Path VERIFICATION_FILE = Path.of("verify_data.txt");
+
+    // bookings made before measuring, three quarters of them paid
+    @Param({"0", "100000"})
+    public int bookings;
+
+    @Param({"5", "50"})
+    public int locations;
+
+    @Param({"STRIPED", "GLOBAL"})
+    public ConcurrencyMode locking;
+
+    @Param({"ENQUEUE"})
+    public Durability durability;
+
+    private Config config;
+    private MedicalServiceImpl service;
+    private final AtomicInteger nextClient = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        config = benchmarkConfig(locations);
+        var options = new Options();
+        options.setConcurrencyMode(locking);
+        options.setDurability(durability);
+        service = new MedicalServiceImpl(config, options);
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < bookings; i++) {
+            var response = service.processProgramRequest(randomRequest(random, "prefill", "prefill" + i % 1000));
+            if (response.getStatus() == ProgramStatus.SUCCESS && i % 4 != 0) {
+                service.processPayment(response.getBookingId());
+            }
+        }
+        service.verify();
+    }
+
+    // the verification appends its whole report at each call
+    @TearDown(Level.Iteration)
+    public void truncateVerification() throws IOException {
+        Files.write(VERIFICATION_FILE, new byte[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+    }
+
+    @Benchmark
+    public ProgramResponse program(Client client) {
+        return service.processProgramRequest(client.nextRequest(), durability);
+    }
+
+    // a paid booking can't be paid again, so each payment comes with a fresh booking made outside the measurement
+    @Benchmark
+    public Response pay(Booked booked) {
+        return service.processPayment(booked.bookingId, durability);
+    }
+
+    // a cancellation needs a booking still active, so each one comes with the booking it cancels
+    @Benchmark
+    public Response programAndCancel(Client client) {
+        var booked = service.processProgramRequest(client.nextRequest(), durability);
+        return service.cancelPayment(booked.getBookingId(), durability);
+    }
+
+    // only the pairs changed since the previous call are checked again, none here
+    @Benchmark
+    public void verify() {
+        service.verify();
+    }
+
+    @Benchmark
+    public void programAndVerify(Client client) {
+        service.processProgramRequest(client.nextRequest(), durability);
+        service.verify();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public ProgramResponse contendedProgram(Client client) {
+        return program(client);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public Response contendedPay(Booked booked) {
+        return pay(booked);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedVerify() {
+        service.verify();
+    }
+
+    private static Config benchmarkConfig(int locations) {
+        var fileConfig = Main.loadConfig();
+        if (fileConfig == null) {
+            throw new IllegalStateException("Couldn't read config.txt, run from the project root");
+        }
+        var maxClients = new Integer[locations][fileConfig.getNumberOfTreatments()];
+        for (var row : maxClients) {
+            Arrays.fill(row, CAPACITY);
+        }
+        return new Config(locations, fileConfig.getNumberOfTreatments(),
+                fileConfig.getTreatmentsCost(), fileConfig.getTreatmentsDuration(), maxClients);
+    }
+
+    private ProgramRequest randomRequest(SplittableRandom random, String name, String cnp) {
+        return new ProgramRequest(name, cnp, random.nextInt(config.getNumberOfLocations()),
+                random.nextInt(config.getNumberOfTreatments()), new Hour(random.nextInt(10, 18), random.nextInt(60)));
+    }
+
+    /**
+     * One benchmark thread, with its own client and bookings.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private SplittableRandom random;
+        private String cnp;
+        private MedicalServiceBenchmark benchmark;
+
+        @Setup(Level.Trial)
+        public void setUp(MedicalServiceBenchmark benchmark) {
+            this.benchmark = benchmark;
+            var number = benchmark.nextClient.incrementAndGet();
+            random = new SplittableRandom(number);
+            cnp = "bench" + number;
+        }
+
+        ProgramRequest nextRequest() {
+            return benchmark.randomRequest(random, "Bench", cnp);
+        }
+    }
+
+    /**
+     * A booking of the thread's client not paid yet, made before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Booked {
+        private long bookingId;
+
+        @Setup(Level.Invocation)
+        public void book(MedicalServiceBenchmark benchmark, Client client) {
+            bookingId = benchmark.service.processProgramRequest(client.nextRequest()).getBookingId();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.benchmark;
+
+import org.example.model.Hour;
+import org.example.model.ProgramRequest;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens many object stream connections to a running server at once and sends program requests on each of them,
+ * reporting how many connections got served before the deadline and the request latency percentiles.
+ * Start the server first, e.g. "Main 0 8" against "Main 0 8 server=virtual", then run
+ * mvn -P benchmarks package && java -cp target/benchmarks.jar org.example.benchmark.ServerLoadBenchmark [host] [port] [connections] [requests] [deadline seconds]
+ */
+public class ServerLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        var host = args.length > 0 ? args[0] : "localhost";
+        var port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        var connections = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        var requestsPerConnection = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        var deadlineSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        var latencies = new ConcurrentLinkedQueue<Long>();
+        var served = new AtomicInteger();
+        var begin = System.nanoTime();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                var cnp = "load" + i;
+                executor.execute(() -> runConnection(host, port, cnp, requestsPerConnection, deadlineSeconds, latencies, served));
+            }
+            executor.shutdown();
+            executor.awaitTermination(deadlineSeconds + 5L, TimeUnit.SECONDS);
+        }
+        var seconds = (System.nanoTime() - begin) / 1e9;
+
+        var sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("connections: %d ; served: %d ; requests: %d in %.1f s%n",
+                connections, served.get(), sorted.length, seconds);
+        if (sorted.length > 0) {
+            System.out.printf("latency ms p50: %.2f ; p99: %.2f ; max: %.2f%n",
+                    percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    private static void runConnection(String host, int port, String cnp, int requests, int deadlineSeconds,
+                                      ConcurrentLinkedQueue<Long> latencies, AtomicInteger served) {
+        List<Long> ownLatencies = new ArrayList<>(requests);
+        try (var socket = new Socket(host, port)) {
+            socket.setSoTimeout(deadlineSeconds * 1000);
+            var output = new ObjectOutputStream(socket.getOutputStream());
+            output.flush();
+            var input = new ObjectInputStream(socket.getInputStream());
+            var random = ThreadLocalRandom.current();
+            for (int i = 0; i < requests; i++) {
+                var request = new ProgramRequest("Load", cnp, random.nextInt(1, 5), random.nextInt(5),
+                        new Hour(random.nextInt(10, 18), random.nextInt(60)));
+                var start = System.nanoTime();
+                output.writeObject(request);
+                output.flush();
+                output.reset();
+                input.readObject();
+                ownLatencies.add(System.nanoTime() - start);
+            }
+            served.incrementAndGet();
+        } catch (Exception e) {
+            // not served before the deadline, only the requests answered so far count
+        }
+        latencies.addAll(ownLatencies);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        var index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
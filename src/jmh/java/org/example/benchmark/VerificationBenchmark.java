@@ -0,0 +1,95 @@
+package org.example.benchmark;
+
+import org.example.Config;
+import org.example.Main;
+import org.example.Options;
+import org.example.model.Hour;
+import org.example.model.ProgramRequest;
+import org.example.model.ProgramStatus;
+import org.example.service.Durability;
+import org.example.service.MedicalServiceImpl;
+import org.example.service.VerificationMode;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures how long one verification takes as the number of bookings grows, with one booking in ten left unpaid,
+ * in every verification mode. Every pair gets a new booking before each verification, so none of the report is reused.
+ * Uses the treatments of config.txt over 50 locations, with capacities raised so every booking is admitted.
+ * Run from the project root so config.txt is found: mvn -P benchmarks package && java -Xmx4g -cp target/benchmarks.jar org.example.benchmark.VerificationBenchmark
+ */
+public class VerificationBenchmark {
+
+    private static final int[] BOOKING_COUNTS = {10_000, 100_000, 1_000_000};
+    private static final int LOCATIONS = 50;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        var fileConfig = Main.loadConfig();
+        if (fileConfig == null) {
+            throw new RuntimeException("Couldn't read config");
+        }
+        System.out.printf("processors: %d%n", Runtime.getRuntime().availableProcessors());
+        for (var bookingCount : BOOKING_COUNTS) {
+            var config = withCapacity(fileConfig, bookingCount);
+            var medians = new double[VerificationMode.values().length];
+            for (var mode : VerificationMode.values()) {
+                var options = new Options();
+                options.setVerificationMode(mode);
+                try (var service = new MedicalServiceImpl(config, options)) {
+                    book(service, config, bookingCount);
+                    var times = new long[RUNS];
+                    for (int i = 0; i < RUNS; i++) {
+                        touchEveryPair(service, config);
+                        var begin = System.nanoTime();
+                        service.verify();
+                        times[i] = System.nanoTime() - begin;
+                    }
+                    Arrays.sort(times);
+                    medians[mode.ordinal()] = times[RUNS / 2] / 1e6;
+                    System.out.printf("bookings: %,9d ; %-10s verify ms min: %8.1f ; median: %8.1f%n",
+                            bookingCount, mode, times[0] / 1e6, medians[mode.ordinal()]);
+                }
+            }
+            System.out.printf("bookings: %,9d ; parallel speedup: %.2f%n", bookingCount,
+                    medians[VerificationMode.SEQUENTIAL.ordinal()] / medians[VerificationMode.PARALLEL.ordinal()]);
+        }
+    }
+
+    private static Config withCapacity(Config config, int capacity) {
+        var maxClients = new Integer[LOCATIONS][config.getNumberOfTreatments()];
+        for (var row : maxClients) {
+            Arrays.fill(row, capacity);
+        }
+        return new Config(LOCATIONS, config.getNumberOfTreatments(),
+                config.getTreatmentsCost(), config.getTreatmentsDuration(), maxClients);
+    }
+
+    private static void book(MedicalServiceImpl service, Config config, int bookingCount) {
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < bookingCount; i++) {
+            var request = new ProgramRequest("Client", "cnp" + (i % 1000),
+                    random.nextInt(config.getNumberOfLocations()),
+                    random.nextInt(config.getNumberOfTreatments()),
+                    new Hour(random.nextInt(10, 18), random.nextInt(60)));
+            var response = service.processProgramRequest(request, Durability.ENQUEUE);
+            if (response.getStatus() != ProgramStatus.SUCCESS) {
+                throw new IllegalStateException("Booking refused " + request);
+            }
+            if (i % 10 != 0) {
+                service.processPayment(response.getBookingId(), Durability.ENQUEUE);
+            }
+        }
+    }
+
+    private static void touchEveryPair(MedicalServiceImpl service, Config config) {
+        for (int location = 0; location < config.getNumberOfLocations(); location++) {
+            for (int treatment = 0; treatment < config.getNumberOfTreatments(); treatment++) {
+                var response = service.processProgramRequest(
+                        new ProgramRequest("Client", "touch", location, treatment, new Hour(12, 0)), Durability.ENQUEUE);
+                service.processPayment(response.getBookingId(), Durability.ENQUEUE);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.example;
 
-import org.example.client.Client;
+import org.example.client.LoadGenerator;
+import org.example.logging.AsyncLog;
 import org.example.server.Server;
 import org.example.service.MedicalServiceImpl;
 
@@ -21,7 +22,7 @@ public class Main {
                 .toArray(array);
     }
 
-    private static Config loadConfig() {
+    public static Config loadConfig() {
         try (var reader = new BufferedReader(new FileReader("config.txt"))) {
 
             var numberOfLocationsStr = reader.readLine();
@@ -50,10 +51,12 @@ public class Main {
         return null;
     }
 
-    public static void createServer(int p, Config config) throws IOException {
-        var medService = new MedicalServiceImpl(config);
+    public static void createServer(int p, Config config, Options options) throws IOException {
+        AsyncLog.setLevel(options.getLogLevel());
+        AsyncLog.setSampling(options.getLogSampling());
+        var medService = new MedicalServiceImpl(config, options);
         var port = 8080;
-        var server = new Server(port, p, medService, 5, TimeUnit.SECONDS);
+        var server = new Server(port, p, medService, 5, TimeUnit.SECONDS, options);
         var executor = Executors.newSingleThreadScheduledExecutor();
         executor.schedule(server::stop, 3, TimeUnit.MINUTES);
         server.start();
@@ -68,11 +71,16 @@ public class Main {
         }
 
         if (type == 0) {
-            createServer(Integer.parseInt(args[1]), config);
+            createServer(Integer.parseInt(args[1]), config, Options.parse(args, 2));
         } else {
             var clientCount = Integer.parseInt(args[1]);
-            var client = new Client("localhost", 8080, 2, TimeUnit.SECONDS, clientCount, "Client", config);
-            client.startClients();
+            var options = Options.parse(args, 2);
+            // by default each client sends a request every 2 seconds
+            var rate = options.getLoadRate() > 0 ? options.getLoadRate() : Math.max(1, clientCount / 2);
+            var loadGenerator = new LoadGenerator("localhost", 8080, clientCount, config, options.getWireFormat(),
+                    rate, options.getLoadDuration(), options.getLoadThreads(), options.getLoadMix());
+            loadGenerator.run();
+            System.exit(0);
         }
     }
 }
\ No newline at end of file
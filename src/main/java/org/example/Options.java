@@ -0,0 +1,121 @@
+package org.example;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.example.logging.LogLevel;
+import org.example.protocol.WireFormat;
+import org.example.server.ServerMode;
+import org.example.service.AdmissionMode;
+import org.example.service.ConcurrencyMode;
+import org.example.service.Durability;
+import org.example.service.StartupMode;
+import org.example.service.StoreMode;
+import org.example.service.VerificationMode;
+
+/**
+ * Optional settings given on the command line as key=value pairs after the positional arguments.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class Options {
+    private ConcurrencyMode concurrencyMode = ConcurrencyMode.GLOBAL;
+    private AdmissionMode admissionMode = AdmissionMode.INDEXED;
+    private ServerMode serverMode = ServerMode.BLOCKING;
+    private int eventLoops = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private WireFormat wireFormat = WireFormat.OBJECT_STREAM;
+    private Durability durability = Durability.WRITE;
+    // cancellations between two compactions of the program file
+    private int compactAfter = 1000;
+    private VerificationMode verificationMode = VerificationMode.SEQUENTIAL;
+    private int verificationThreads = Runtime.getRuntime().availableProcessors();
+    private StoreMode storeMode = StoreMode.HEAP;
+    private StartupMode startupMode = StartupMode.FRESH;
+    // port of the plain text metrics endpoint on localhost, 0 to leave it off
+    private int metricsPort = 0;
+    // program requests arriving within this many microseconds of the first one are booked together, 0 books each alone
+    private int batchWindow = 0;
+    private int batchSize = 256;
+    // admission control: requests handled or waiting at the same time, 0 for no limit, and waiting in the request pool
+    private int maxInFlight = 10_000;
+    private int requestQueue = 10_000;
+    // admission control: requests per second of each connection and their burst, 0 for no limit
+    private int clientRate = 0;
+    private int clientBurst = 0;
+    // blocking server: connections waiting for a free worker before new ones are refused
+    private int maxPendingConnections = 1000;
+    private LogLevel logLevel = LogLevel.INFO;
+    // one request in logSampling is logged
+    private int logSampling = 1;
+    // load generator: requests per second over every client, 0 for one every 2 seconds per client,
+    // how long and from how many threads to send them
+    private int loadRate = 0;
+    private int loadDuration = 30;
+    private int loadThreads = 2;
+    // load generator: percentages of program, pay and cancel requests, given as program:pay:cancel
+    private int[] loadMix = {60, 30, 10};
+
+    public static Options parse(String[] args, int from) {
+        var options = new Options();
+        for (int i = from; i < args.length; i++) {
+            var parts = args[i].split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected key=value but got " + args[i]);
+            }
+            var value = parts[1].trim();
+            switch (parts[0].trim()) {
+                case "locking" -> options.setConcurrencyMode(ConcurrencyMode.valueOf(value.toUpperCase()));
+                case "admission" -> options.setAdmissionMode(AdmissionMode.valueOf(value.toUpperCase().replace('-', '_')));
+                case "server" -> options.setServerMode(ServerMode.valueOf(value.toUpperCase()));
+                case "eventLoops" -> options.setEventLoops(Integer.parseInt(value));
+                case "wire" -> options.setWireFormat(WireFormat.valueOf(value.toUpperCase().replace('-', '_')));
+                case "durability" -> options.setDurability(Durability.valueOf(value.toUpperCase()));
+                case "compactAfter" -> options.setCompactAfter(parsePositive(parts[0].trim(), value));
+                case "verification" -> options.setVerificationMode(VerificationMode.valueOf(value.toUpperCase()));
+                case "verificationThreads" -> options.setVerificationThreads(Integer.parseInt(value));
+                case "store" -> options.setStoreMode(StoreMode.valueOf(value.toUpperCase()));
+                case "startup" -> options.setStartupMode(StartupMode.valueOf(value.toUpperCase()));
+                case "metricsPort" -> options.setMetricsPort(Integer.parseInt(value));
+                case "batchWindow" -> options.setBatchWindow(Integer.parseInt(value));
+                case "batchSize" -> options.setBatchSize(Integer.parseInt(value));
+                case "maxInFlight" -> options.setMaxInFlight(Integer.parseInt(value));
+                case "requestQueue" -> options.setRequestQueue(Integer.parseInt(value));
+                case "clientRate" -> options.setClientRate(Integer.parseInt(value));
+                case "clientBurst" -> options.setClientBurst(Integer.parseInt(value));
+                case "maxPendingConnections" -> options.setMaxPendingConnections(Integer.parseInt(value));
+                case "logLevel" -> options.setLogLevel(LogLevel.valueOf(value.toUpperCase()));
+                case "logSampling" -> options.setLogSampling(Integer.parseInt(value));
+                case "rate" -> options.setLoadRate(Integer.parseInt(value));
+                case "duration" -> options.setLoadDuration(Integer.parseInt(value));
+                case "loadThreads" -> options.setLoadThreads(Integer.parseInt(value));
+                case "mix" -> options.setLoadMix(parseMix(value));
+                default -> throw new IllegalArgumentException("Unknown option " + parts[0]);
+            }
+        }
+        return options;
+    }
+
+    private static int parsePositive(String key, String value) {
+        var number = Integer.parseInt(value);
+        if (number <= 0) {
+            throw new IllegalArgumentException(key + " must be positive, got " + value);
+        }
+        return number;
+    }
+
+    private static int[] parseMix(String value) {
+        var parts = value.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected program:pay:cancel percentages but got " + value);
+        }
+        var mix = new int[3];
+        for (int i = 0; i < 3; i++) {
+            mix[i] = Integer.parseInt(parts[i].trim());
+        }
+        if (mix[0] + mix[1] + mix[2] != 100) {
+            throw new IllegalArgumentException("The mix percentages must add up to 100, got " + value);
+        }
+        return mix;
+    }
+}
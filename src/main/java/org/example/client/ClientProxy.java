@@ -1,47 +1,57 @@
 package org.example.client;
 
 import org.example.model.*;
+import org.example.protocol.MessageStream;
+import org.example.protocol.WireFormat;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ClientProxy {
+    // a request not answered by then fails rather than waiting for ever on an overloaded server
+    private static final long RESPONSE_TIMEOUT_SECONDS = 30;
+
     private final String host;
     private final int port;
+    // the process exits when the last client of the count closes, null when the caller ends by itself
     private final AtomicInteger clientCount;
     private final String name;
-    private ObjectInputStream input;
-    private ObjectOutputStream output;
+    private final WireFormat wireFormat;
+    private MessageStream stream;
     private Socket connection;
 
-    private BlockingQueue<Response> qresponses;
+    // requests sent and not answered yet, by correlation id
+    private final Map<Long, CompletableFuture<Response>> pendingResponses = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong(1);
     private AtomicBoolean finished = new AtomicBoolean();
-    private ExecutorService reader = Executors.newSingleThreadExecutor();
+    // a virtual thread, so thousands of connections don't need thousands of platform threads
+    private Thread reader;
 
     public ClientProxy(String host, int port, AtomicInteger clientCount, String name) {
+        this(host, port, clientCount, name, WireFormat.OBJECT_STREAM);
+    }
+
+    public ClientProxy(String host, int port, AtomicInteger clientCount, String name, WireFormat wireFormat) {
         this.host = host;
         this.port = port;
         this.clientCount = clientCount;
         this.name = name;
-        //responses=new ArrayList<Response>();
-        qresponses = new LinkedBlockingQueue<Response>();
+        this.wireFormat = wireFormat;
         initializeConnection();
     }
 
     private void initializeConnection() {
         try {
             connection = new Socket(host, port);
-            output = new ObjectOutputStream(connection.getOutputStream());
-            output.flush();
-            input = new ObjectInputStream(connection.getInputStream());
+            stream = MessageStream.connect(connection, wireFormat);
             startReader();
         } catch (IOException e) {
             e.printStackTrace();
@@ -53,67 +63,111 @@ public class ClientProxy {
     }
 
     public ProgramResponse sendProgramRequest(ProgramRequest request) {
-        sendRequest(request);
-        return (ProgramResponse) readResponse();
+        return (ProgramResponse) await(sendProgramRequestAsync(request));
+    }
+
+    /**
+     * @return an {@link OkResponse}, or a failed {@link ProgramResponse} if the booking doesn't exist anymore
+     */
+    public Response sendPaymentRequest(long bookingId) {
+        return await(sendPaymentRequestAsync(bookingId));
+    }
+
+    /**
+     * @return an {@link OkResponse}, or a failed {@link ProgramResponse} if the booking doesn't exist anymore
+     */
+    public Response sendCancelRequest(long bookingId) {
+        return await(sendCancelRequestAsync(bookingId));
+    }
+
+    /**
+     * Sends the request without waiting for the answers of the requests already in flight.
+     * The server answers in any order, except that requests for the same booking are handled in the order sent.
+     */
+    public CompletableFuture<ProgramResponse> sendProgramRequestAsync(ProgramRequest request) {
+        return sendRequest(request).thenApply(response -> (ProgramResponse) response);
     }
 
-    public OkResponse sendPaymentRequest() {
-        sendRequest(new PayRequest());
-        return (OkResponse) readResponse();
+    public CompletableFuture<Response> sendPaymentRequestAsync(long bookingId) {
+        return sendRequest(new PayRequest(bookingId));
     }
 
-    public OkResponse sendCancelRequest() {
-        sendRequest(new CancellationRequest());
-        return (OkResponse) readResponse();
+    public CompletableFuture<Response> sendCancelRequestAsync(long bookingId) {
+        return sendRequest(new CancellationRequest(bookingId));
     }
 
-    private void sendRequest(Request request) {
+    private CompletableFuture<Response> sendRequest(Request request) {
         if (finished.get()) {
-            return;
+            return CompletableFuture.failedFuture(new IllegalStateException("Connection closed"));
+        }
+        var correlationId = nextCorrelationId.getAndIncrement();
+        var response = new CompletableFuture<Response>();
+        pendingResponses.put(correlationId, response);
+        response.orTimeout(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .whenComplete((ignored, error) -> pendingResponses.remove(correlationId, response));
+        // closed after the check above, the close may have missed this request
+        if (finished.get()) {
+            response.completeExceptionally(new IllegalStateException("Connection closed"));
+            return response;
         }
+        request.setCorrelationId(correlationId);
         try {
-            output.writeObject(request);
-            output.flush();
+            writeMessage(request);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            pendingResponses.remove(correlationId);
+            response.completeExceptionally(e);
         }
+        return response;
     }
 
-    private Response readResponse() {
-/*
-        System.out.println("Reading resposne...");
-*/
-        Response response = null;
-        if (finished.get()) {
-            return null;
-        }
-        try {
-            response = qresponses.take();
+    private synchronized void writeMessage(Object message) throws IOException {
+        stream.write(message);
+    }
 
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    private Response await(CompletableFuture<? extends Response> response) {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (!finished.get()) {
+                e.printStackTrace();
+            }
+            return null;
         }
-        return response;
     }
 
     private void startReader() {
-        reader.execute(new ReaderThread());
+        reader = Thread.ofVirtual().name("client-reader-" + name).start(new ReaderThread());
     }
 
+    /**
+     * Closes the connection, failing the requests still in flight.
+     */
+    public void close() {
+        closeConnection();
+    }
+
+    // once, whether the client, a stop notification or a reading error closes first
     private void closeConnection() {
-        finished.set(true);
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        var closed = new IllegalStateException("Connection closed");
+        pendingResponses.values().forEach(response -> response.completeExceptionally(closed));
+        pendingResponses.clear();
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // the connection is gone already, the buffered bytes had nowhere to go
+        }
         try {
-            input.close();
-            output.close();
             connection.close();
-            reader.shutdownNow();
-            int currentClient = clientCount.decrementAndGet();
-            if (currentClient == 0) {
-                System.exit(0);
-            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        reader.interrupt();
+        if (clientCount != null && clientCount.decrementAndGet() == 0) {
+            System.exit(0);
+        }
     }
 
     private class ReaderThread implements Runnable {
@@ -121,21 +175,25 @@ public class ClientProxy {
         public void run() {
             while (!finished.get()) {
                 try {
-                    Object response = input.readObject();
-//                    System.out.println("response received " + response);
+                    Object response = stream.read();
                     if (response instanceof ServerStopNotification) {
                         System.out.println("Got stop notification in client " + name);
                         closeConnection();
                         return;
+                    }
+                    var pending = pendingResponses.remove(((Response) response).getCorrelationId());
+                    if (pending != null) {
+                        pending.complete((Response) response);
                     } else {
-                        try {
-                            qresponses.put((Response) response);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
+                        System.out.println("Response for an unknown request " + response);
                     }
                 } catch (IOException | ClassNotFoundException e) {
-                    System.out.println("Reading error " + e);
+                    // the stream can't be read past this, the requests in flight fail now rather than at their timeout
+                    if (!finished.get()) {
+                        System.out.println("Reading error " + e);
+                        closeConnection();
+                    }
+                    return;
                 }
             }
         }
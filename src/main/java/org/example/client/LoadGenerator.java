@@ -0,0 +1,258 @@
+package org.example.client;
+
+import org.example.Config;
+import org.example.metrics.LatencyHistogram;
+import org.example.model.Hour;
+import org.example.model.ProgramRequest;
+import org.example.model.ProgramResponse;
+import org.example.model.ProgramStatus;
+import org.example.model.Response;
+import org.example.protocol.WireFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load: requests are sent on a fixed schedule at the given rate whether or not the earlier ones were answered,
+ * and their latency is measured from the time they were scheduled, so a stalled server shows in the percentiles instead
+ * of slowing the load down. The simulated clients each keep a pipelined connection and are shared by a few sender threads,
+ * their answers are read by virtual threads. Pay and cancel requests go to bookings the client made earlier.
+ * Thousands of clients need a server that doesn't keep a pool thread per connection, server=nio or server=virtual.
+ */
+public class LoadGenerator {
+
+    private static final double[] QUANTILES = {0.50, 0.99, 0.999};
+    // time left to the requests in flight once the load stops
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String host;
+    private final int port;
+    private final int numberOfClients;
+    private final Config config;
+    private final WireFormat wireFormat;
+    // requests per second over every client
+    private final int rate;
+    private final int durationSeconds;
+    private final int senderThreads;
+    // percentages of program, pay and cancel requests
+    private final int[] operationMix;
+
+    private final OperationStats[] stats = new OperationStats[Operation.values().length];
+    // requests sent and not answered yet, by a number of their own; whoever removes one records it
+    private final Map<Long, PendingRequest> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestNumber = new AtomicLong();
+
+    public LoadGenerator(String host, int port, int numberOfClients, Config config, WireFormat wireFormat,
+                         int rate, int durationSeconds, int senderThreads, int[] operationMix) {
+        this.host = host;
+        this.port = port;
+        this.numberOfClients = numberOfClients;
+        this.config = config;
+        this.wireFormat = wireFormat;
+        this.rate = rate;
+        this.durationSeconds = durationSeconds;
+        this.senderThreads = Math.max(1, Math.min(senderThreads, numberOfClients));
+        this.operationMix = operationMix;
+        for (var operation : Operation.values()) {
+            stats[operation.ordinal()] = new OperationStats();
+        }
+    }
+
+    /**
+     * Connects the clients, sends the load for the configured duration and prints the report.
+     */
+    public void run() throws InterruptedException {
+        var clients = new ArrayList<SimulatedClient>(numberOfClients);
+        for (int i = 1; i <= numberOfClients; i++) {
+            clients.add(new SimulatedClient("Load" + i, "load" + i,
+                    new ClientProxy(host, port, null, "Load" + i, wireFormat)));
+        }
+        System.out.printf("%s clients connected, sending %s requests/s for %s s%n", numberOfClients, rate, durationSeconds);
+
+        var begin = System.nanoTime();
+        var senders = new ArrayList<Thread>();
+        for (int t = 0; t < senderThreads; t++) {
+            var ownClients = new ArrayList<SimulatedClient>();
+            for (int i = t; i < clients.size(); i += senderThreads) {
+                ownClients.add(clients.get(i));
+            }
+            // the senders share the schedule, each taking every senderThreads-th slot
+            var first = t;
+            senders.add(Thread.ofPlatform().name("load-sender-" + t).start(() -> send(ownClients, begin, first)));
+        }
+        for (var sender : senders) {
+            sender.join();
+        }
+        var sendSeconds = (System.nanoTime() - begin) / 1e9;
+        var drainEnd = System.nanoTime() + DRAIN_NANOS;
+        while (!pending.isEmpty() && System.nanoTime() < drainEnd) {
+            Thread.sleep(10);
+        }
+        recordUnanswered();
+        report(sendSeconds);
+        clients.forEach(client -> client.proxy.close());
+    }
+
+    private void send(List<SimulatedClient> clients, long begin, int firstSlot) {
+        var interval = 1_000_000_000.0 / rate;
+        var end = begin + TimeUnit.SECONDS.toNanos(durationSeconds);
+        var random = ThreadLocalRandom.current();
+        for (long slot = firstSlot; ; slot += senderThreads) {
+            var scheduled = begin + (long) (slot * interval);
+            if (scheduled >= end) {
+                return;
+            }
+            var wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            var client = clients.get(random.nextInt(clients.size()));
+            // the server went away, the report shows what was answered until then
+            if (client.proxy.isFinished() && clients.stream().allMatch(other -> other.proxy.isFinished())) {
+                return;
+            }
+            sendOne(client, pickOperation(random.nextInt(100)), scheduled);
+        }
+    }
+
+    private Operation pickOperation(int percent) {
+        if (percent < operationMix[0]) {
+            return Operation.PROGRAM;
+        }
+        return percent < operationMix[0] + operationMix[1] ? Operation.PAY : Operation.CANCEL;
+    }
+
+    private void sendOne(SimulatedClient client, Operation operation, long scheduled) {
+        // with no booking to pay or cancel the client books instead
+        var bookingId = operation == Operation.PAY ? client.unpaid.pollFirst()
+                : operation == Operation.CANCEL ? client.takeAnyBooking()
+                : null;
+        if (bookingId == null) {
+            operation = Operation.PROGRAM;
+        }
+        CompletableFuture<? extends Response> response = switch (operation) {
+            case PROGRAM -> client.proxy.sendProgramRequestAsync(randomProgramRequest(client));
+            case PAY -> client.proxy.sendPaymentRequestAsync(bookingId);
+            case CANCEL -> client.proxy.sendCancelRequestAsync(bookingId);
+        };
+        var requestNumber = nextRequestNumber.getAndIncrement();
+        pending.put(requestNumber, new PendingRequest(operation, scheduled));
+        var sentOperation = operation;
+        response.whenComplete((result, error) -> {
+            if (pending.remove(requestNumber) == null) {
+                // already recorded as unanswered
+                return;
+            }
+            var operationStats = stats[sentOperation.ordinal()];
+            operationStats.latencies.record(System.nanoTime() - scheduled);
+            if (error != null) {
+                operationStats.errors.incrementAndGet();
+            } else if (result instanceof ProgramResponse programResponse && programResponse.getStatus() == ProgramStatus.BUSY) {
+                operationStats.busy.incrementAndGet();
+                // shed before being handled, the booking can be paid or cancelled later
+                if (sentOperation == Operation.PAY) {
+                    client.unpaid.addFirst(bookingId);
+                } else if (sentOperation == Operation.CANCEL) {
+                    client.paid.addFirst(bookingId);
+                }
+            } else if (result instanceof ProgramResponse programResponse && programResponse.getStatus() != ProgramStatus.SUCCESS) {
+                operationStats.rejected.incrementAndGet();
+            } else if (sentOperation == Operation.PROGRAM) {
+                client.unpaid.addLast(((ProgramResponse) result).getBookingId());
+            } else if (sentOperation == Operation.PAY) {
+                client.paid.addLast(bookingId);
+            }
+        });
+    }
+
+    /**
+     * Records the requests still unanswered after the drain time as taking until now, so the slowest requests of a
+     * stalled server are in the percentiles rather than left out of them.
+     */
+    private void recordUnanswered() {
+        var now = System.nanoTime();
+        var unanswered = 0;
+        for (var requestNumber : pending.keySet()) {
+            var request = pending.remove(requestNumber);
+            if (request != null) {
+                var operationStats = stats[request.operation().ordinal()];
+                operationStats.latencies.record(now - request.scheduled());
+                operationStats.unanswered.incrementAndGet();
+                unanswered++;
+            }
+        }
+        if (unanswered > 0) {
+            System.out.printf("%s requests still unanswered after the drain time, counted until now%n", unanswered);
+        }
+    }
+
+    private ProgramRequest randomProgramRequest(SimulatedClient client) {
+        var random = ThreadLocalRandom.current();
+        return new ProgramRequest(client.name, client.cnp,
+                random.nextInt(config.getNumberOfLocations()),
+                random.nextInt(config.getNumberOfTreatments()),
+                new Hour(random.nextInt(10, 18), random.nextInt(60)));
+    }
+
+    private void report(double sendSeconds) {
+        System.out.printf("%-8s %10s %10s %8s %8s %8s %10s %10s %10s %10s %10s%n",
+                "op", "count", "ops/s", "rejected", "busy", "errors", "unanswered", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (var operation : Operation.values()) {
+            var operationStats = stats[operation.ordinal()];
+            var latencies = operationStats.latencies;
+            System.out.printf("%-8s %10d %10.0f %8d %8d %8d %10d", operation, latencies.getTotalCount(),
+                    latencies.getTotalCount() / sendSeconds, operationStats.rejected.get(), operationStats.busy.get(),
+                    operationStats.errors.get(), operationStats.unanswered.get());
+            for (var quantile : QUANTILES) {
+                System.out.printf(" %10.3f", latencies.getValueAtQuantile(quantile) / 1e6);
+            }
+            System.out.printf(" %10.3f%n", latencies.getMax() / 1e6);
+        }
+    }
+
+    private enum Operation {
+        PROGRAM, PAY, CANCEL
+    }
+
+    private record PendingRequest(Operation operation, long scheduled) {
+    }
+
+    private static class OperationStats {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong rejected = new AtomicLong();
+        // answered BUSY by the admission control of the server
+        private final AtomicLong busy = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        // still unanswered at the end, in the latencies with their time until then
+        private final AtomicLong unanswered = new AtomicLong();
+    }
+
+    private static class SimulatedClient {
+        private final String name;
+        private final String cnp;
+        private final ClientProxy proxy;
+        // bookings made and not paid or cancelled yet, oldest first
+        private final ConcurrentLinkedDeque<Long> unpaid = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedDeque<Long> paid = new ConcurrentLinkedDeque<>();
+
+        SimulatedClient(String name, String cnp, ClientProxy proxy) {
+            this.name = name;
+            this.cnp = cnp;
+            this.proxy = proxy;
+        }
+
+        // cancels paid bookings first, like the client of Client does
+        Long takeAnyBooking() {
+            var bookingId = paid.pollFirst();
+            return bookingId != null ? bookingId : unpaid.pollFirst();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.example.logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logging that doesn't make the caller wait: an event is a constant message and one argument put in a slot of a
+ * preallocated ring buffer, and a background thread formats and prints the events in the order they were logged.
+ * Logging costs a few atomic operations and no allocation, the argument is only turned into text by the drainer,
+ * so it mustn't change after being logged. When the buffer is full the event is dropped and counted rather than
+ * waiting for the drainer. {@link #sampled} events are kept one in {@link #setSampling sampling}, for the
+ * per-request messages.
+ */
+public final class AsyncLog {
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    // how long the drainer sleeps when there is nothing to print
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private static final Slot[] slots = new Slot[CAPACITY];
+    // sequence + 1 of the event in each slot once it can be read
+    private static final long[] published = new long[CAPACITY];
+    private static final AtomicLong claimed = new AtomicLong();
+    // events before this one were printed, written by the drainer only
+    private static volatile long drained;
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile LogLevel level = LogLevel.INFO;
+    private static volatile int sampling = 1;
+    private static final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Slot();
+        }
+        var drainer = new Thread(AsyncLog::drainLoop, "async-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private AsyncLog() {
+    }
+
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * @param oneIn keeps one sampled event in this many, 1 keeps them all
+     */
+    public static void setSampling(int oneIn) {
+        sampling = Math.max(1, oneIn);
+    }
+
+    public static boolean isEnabled(LogLevel eventLevel) {
+        return eventLevel.compareTo(level) >= 0 && eventLevel != LogLevel.OFF;
+    }
+
+    /**
+     * @param message  a constant, printed followed by the argument
+     * @param argument turned into text by the drainer, may be null
+     */
+    public static void log(LogLevel eventLevel, String message, Object argument) {
+        if (isEnabled(eventLevel)) {
+            publish(eventLevel, message, argument);
+        }
+    }
+
+    public static void log(LogLevel eventLevel, String message) {
+        log(eventLevel, message, null);
+    }
+
+    /**
+     * Logs the event if it is one of the sampled ones.
+     */
+    public static void sampled(LogLevel eventLevel, String message, Object argument) {
+        if (isEnabled(eventLevel)) {
+            var oneIn = sampling;
+            if (oneIn == 1 || ThreadLocalRandom.current().nextInt(oneIn) == 0) {
+                publish(eventLevel, message, argument);
+            }
+        }
+    }
+
+    /**
+     * Waits until the events logged so far are printed, for at most the given time.
+     */
+    public static void flush(long timeout, TimeUnit unit) {
+        var target = claimed.get();
+        var deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (drained < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private static void publish(LogLevel eventLevel, String message, Object argument) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - drained >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        var slot = slots[(int) (sequence & MASK)];
+        slot.time = System.currentTimeMillis();
+        slot.level = eventLevel;
+        slot.thread = Thread.currentThread().getName();
+        slot.message = message;
+        slot.argument = argument;
+        PUBLISHED.setRelease(published, (int) (sequence & MASK), sequence + 1);
+    }
+
+    private static void drainLoop() {
+        var line = new StringBuilder(256);
+        long reportedDropped = 0;
+        while (true) {
+            var next = drained;
+            var printed = false;
+            while ((long) PUBLISHED.getAcquire(published, (int) (next & MASK)) == next + 1) {
+                var slot = slots[(int) (next & MASK)];
+                line.setLength(0);
+                TIME_FORMAT.formatTo(Instant.ofEpochMilli(slot.time), line);
+                line.append(' ').append(slot.level).append(" [").append(slot.thread).append("] ").append(slot.message);
+                if (slot.argument != null) {
+                    line.append(slot.argument);
+                }
+                line.append('\n');
+                slot.argument = null;
+                write(line);
+                drained = ++next;
+                printed = true;
+            }
+            var droppedNow = dropped.sum();
+            if (droppedNow != reportedDropped) {
+                line.setLength(0);
+                line.append("Log buffer full, dropped ").append(droppedNow - reportedDropped).append(" events\n");
+                write(line);
+                reportedDropped = droppedNow;
+                printed = true;
+            }
+            if (printed) {
+                try {
+                    out.flush();
+                } catch (IOException ignored) {
+                }
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static void write(CharSequence text) {
+        try {
+            out.append(text);
+        } catch (IOException ignored) {
+            // nowhere left to report it
+        }
+    }
+
+    private static final class Slot {
+        private long time;
+        private LogLevel level;
+        private String thread;
+        private String message;
+        private Object argument;
+    }
+}
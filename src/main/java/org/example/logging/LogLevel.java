@@ -0,0 +1,12 @@
+package org.example.logging;
+
+public enum LogLevel {
+    DEBUG,
+    // requests, connections and verifications, the default
+    INFO,
+    // errors the server goes on after
+    WARN,
+    ERROR,
+    // nothing at all
+    OFF;
+}
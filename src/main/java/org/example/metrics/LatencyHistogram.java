@@ -0,0 +1,131 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of recorded values in log linear buckets, in the manner of HdrHistogram: values below 128 have their own
+ * bucket and bigger ones share a bucket with the values agreeing on their 7 highest bits, so percentiles are within
+ * 1.6% of the recorded value whatever its magnitude. Recording is a few instructions and doesn't lock or allocate,
+ * any number of threads may record at once.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    // an adder, every recording thread would otherwise update the same counter
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value a non negative value, negative ones are counted as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return the exact sum of the recorded values
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1, 0.999 for the 99.9th percentile
+     * @return the highest value of the bucket holding the quantile, 0 if nothing was recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        var total = totalCount.sum();
+        if (total == 0) {
+            return 0;
+        }
+        var rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if nothing was recorded
+     */
+    public double getMean() {
+        var total = totalCount.sum();
+        return total == 0 ? 0 : sum.sum() / (double) total;
+    }
+
+    /**
+     * Adds the values recorded here to the other histogram, for reporting several of them as one.
+     */
+    public void addTo(LatencyHistogram other) {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            var count = counts.get(bucket);
+            if (count > 0) {
+                other.counts.addAndGet(bucket, count);
+            }
+        }
+        other.totalCount.add(totalCount.sum());
+        other.sum.add(sum.sum());
+        other.max.accumulateAndGet(max.get(), Math::max);
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts.set(bucket, 0);
+        }
+        totalCount.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // shifts the value until its highest bit is the top one of a half bucket
+        var shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    private static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        var shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        var subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return (long) subBucket << shift;
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        var shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        return lowestValueOf(bucket) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,194 @@
+package org.example.metrics;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the server, cheap enough to record on every request. Times are recorded in
+ * nanoseconds and reported in seconds, histograms as the quantiles of {@link #QUANTILES} with their count, sum and max.
+ * Read through {@link #snapshot()}, which the JMX bean and the text endpoint both show.
+ */
+@Getter
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    public enum RequestType {
+        PROGRAM, PAY, CANCEL
+    }
+
+    private final LatencyHistogram[] requestLatencies = new LatencyHistogram[RequestType.values().length];
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    // requests answered BUSY by the admission control
+    private final LongAdder[] requestsShed = new LongAdder[RequestType.values().length];
+    // one histogram per booking lock stripe, so the stripes don't share any counter, merged when reported
+    private final List<LatencyHistogram> bookingLockWaits = new CopyOnWriteArrayList<>();
+    private final List<LatencyHistogram> bookingLockHolds = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram verificationLockWaits = new LatencyHistogram();
+    private final LatencyHistogram verificationLockHolds = new LatencyHistogram();
+    private final LatencyHistogram verificationDurations = new LatencyHistogram();
+    // write time of each batch, by log file name
+    private final Map<String, LatencyHistogram> logWrites = new ConcurrentSkipListMap<>();
+    // program requests booked together by the batcher, and how many batches they took
+    private final LongAdder programBatches = new LongAdder();
+    private final LongAdder programBatchedRequests = new LongAdder();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+
+    public Metrics() {
+        for (var type : RequestType.values()) {
+            requestLatencies[type.ordinal()] = new LatencyHistogram();
+            requestsShed[type.ordinal()] = new LongAdder();
+        }
+    }
+
+    public void requestStarted() {
+        requestsInFlight.incrementAndGet();
+    }
+
+    /**
+     * @param nanos from the request being read to its response being ready
+     */
+    public void requestCompleted(RequestType type, long nanos) {
+        requestsInFlight.decrementAndGet();
+        requestLatencies[type.ordinal()].record(nanos);
+    }
+
+    public void requestShed(RequestType type) {
+        requestsShed[type.ordinal()].increment();
+    }
+
+    public void programBatchProcessed(int size) {
+        programBatches.increment();
+        programBatchedRequests.add(size);
+    }
+
+    /**
+     * @return the wait time histogram of a new booking lock stripe
+     */
+    public LatencyHistogram newBookingLockWaits() {
+        var histogram = new LatencyHistogram();
+        bookingLockWaits.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * @return the hold time histogram of a new booking lock stripe
+     */
+    public LatencyHistogram newBookingLockHolds() {
+        var histogram = new LatencyHistogram();
+        bookingLockHolds.add(histogram);
+        return histogram;
+    }
+
+    public LatencyHistogram logWrites(String logName) {
+        return logWrites.computeIfAbsent(logName, ignored -> new LatencyHistogram());
+    }
+
+    public void connectionOpened() {
+        activeConnections.incrementAndGet();
+        connectionsOpened.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    /**
+     * @return the current value of every metric, in a fixed order
+     */
+    public List<Sample> snapshot() {
+        var samples = new ArrayList<Sample>();
+        // the samples of a metric stay together, as the text format wants
+        for (var type : RequestType.values()) {
+            samples.add(new Sample("requests_total", typeLabel(type), requestLatencies[type.ordinal()].getTotalCount()));
+        }
+        for (var type : RequestType.values()) {
+            addHistogram(samples, "request_latency_seconds", typeLabel(type), requestLatencies[type.ordinal()]);
+        }
+        for (var type : RequestType.values()) {
+            samples.add(new Sample("requests_shed_total", typeLabel(type), requestsShed[type.ordinal()].sum()));
+        }
+        samples.add(new Sample("requests_in_flight", "", requestsInFlight.get()));
+        addHistogram(samples, "lock_wait_seconds", "lock=\"booking\"", merged(bookingLockWaits));
+        addHistogram(samples, "lock_wait_seconds", "lock=\"verification\"", verificationLockWaits);
+        addHistogram(samples, "lock_hold_seconds", "lock=\"booking\"", merged(bookingLockHolds));
+        addHistogram(samples, "lock_hold_seconds", "lock=\"verification\"", verificationLockHolds);
+        addHistogram(samples, "verification_seconds", "", verificationDurations);
+        for (var log : logWrites.entrySet()) {
+            addHistogram(samples, "log_write_seconds", "log=\"" + log.getKey() + "\"", log.getValue());
+        }
+        samples.add(new Sample("program_batches_total", "", programBatches.sum()));
+        samples.add(new Sample("program_batched_requests_total", "", programBatchedRequests.sum()));
+        samples.add(new Sample("connections_active", "", activeConnections.get()));
+        samples.add(new Sample("connections_opened_total", "", connectionsOpened.sum()));
+        samples.add(new Sample("connections_rejected_total", "", connectionsRejected.sum()));
+        return samples;
+    }
+
+    /**
+     * @return the snapshot in the Prometheus text format
+     */
+    public String toText() {
+        var text = new StringBuilder();
+        var typed = new HashSet<String>();
+        for (var sample : snapshot()) {
+            var baseName = sample.name().replaceAll("_(count|sum|max)$", "");
+            if (typed.add(baseName)) {
+                text.append("# TYPE ").append(baseName).append(baseName.endsWith("_seconds") ? " summary\n"
+                        : baseName.endsWith("_total") ? " counter\n" : " gauge\n");
+            }
+            text.append(sample.name());
+            if (!sample.labels().isEmpty()) {
+                text.append('{').append(sample.labels()).append('}');
+            }
+            text.append(' ').append(format(sample.value())).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String typeLabel(RequestType type) {
+        return "type=\"" + type.name().toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    private static LatencyHistogram merged(List<LatencyHistogram> histograms) {
+        var merged = new LatencyHistogram();
+        histograms.forEach(histogram -> histogram.addTo(merged));
+        return merged;
+    }
+
+    private static void addHistogram(List<Sample> samples, String name, String labels, LatencyHistogram histogram) {
+        var separator = labels.isEmpty() ? "" : ",";
+        for (var quantile : QUANTILES) {
+            samples.add(new Sample(name, labels + separator + "quantile=\"" + quantile + "\"",
+                    histogram.getValueAtQuantile(quantile) / 1e9));
+        }
+        samples.add(new Sample(name + "_max", labels, histogram.getMax() / 1e9));
+        samples.add(new Sample(name + "_sum", labels, histogram.getSum() / 1e9));
+        samples.add(new Sample(name + "_count", labels, histogram.getTotalCount()));
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * One value, its labels in the Prometheus form key="value",key="value".
+     */
+    public record Sample(String name, String labels, double value) {
+    }
+}
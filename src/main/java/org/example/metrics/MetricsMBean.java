@@ -0,0 +1,99 @@
+package org.example.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Shows the {@link Metrics} snapshot as read only JMX attributes, named after the metric and its label values,
+ * e.g. request_latency_seconds.program.0.99. Registered as org.example:type=Metrics.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    private static final Pattern LABEL_VALUE = Pattern.compile("\\w+=\"([^\"]*)\"");
+
+    private final Metrics metrics;
+
+    public MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing the ones of an earlier server of this JVM.
+     */
+    public static void register(Metrics metrics) throws JMException {
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var name = new ObjectName("org.example:type=Metrics");
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(new MetricsMBean(metrics), name);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (var sample : metrics.snapshot()) {
+            if (attributeName(sample).equals(attribute)) {
+                return sample.value();
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        var wanted = Set.of(attributes);
+        var list = new AttributeList();
+        for (var sample : metrics.snapshot()) {
+            var name = attributeName(sample);
+            if (wanted.contains(name)) {
+                list.add(new Attribute(name, sample.value()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("No operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        var attributes = new ArrayList<MBeanAttributeInfo>();
+        for (var sample : metrics.snapshot()) {
+            attributes.add(new MBeanAttributeInfo(attributeName(sample), Double.class.getName(), sample.name(),
+                    true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Server metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                null, null, null);
+    }
+
+    private static String attributeName(Metrics.Sample sample) {
+        var name = new StringBuilder(sample.name());
+        var labels = LABEL_VALUE.matcher(sample.labels());
+        while (labels.find()) {
+            name.append('.').append(labels.group(1));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A lock recording how long it was waited for and held. Several locks may record into the same histograms,
+ * at the cost of their threads updating the same counters.
+ * Not for reentrant use, a nested hold would end the outer one's hold time.
+ */
+public class TimedLock implements Lock {
+
+    private final Lock lock;
+    private final LatencyHistogram waitTimes;
+    private final LatencyHistogram holdTimes;
+    // written and read by the holder only
+    private long acquiredAt;
+
+    public TimedLock(Lock lock, LatencyHistogram waitTimes, LatencyHistogram holdTimes) {
+        this.lock = lock;
+        this.waitTimes = waitTimes;
+        this.holdTimes = holdTimes;
+    }
+
+    @Override
+    public void lock() {
+        var begin = System.nanoTime();
+        lock.lock();
+        acquired(begin);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        var begin = System.nanoTime();
+        lock.lockInterruptibly();
+        acquired(begin);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        acquiredAt = System.nanoTime();
+        waitTimes.record(0);
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        var begin = System.nanoTime();
+        if (!lock.tryLock(time, unit)) {
+            return false;
+        }
+        acquired(begin);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        holdTimes.record(System.nanoTime() - acquiredAt);
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+
+    private void acquired(long begin) {
+        acquiredAt = System.nanoTime();
+        waitTimes.record(acquiredAt - begin);
+    }
+}
@@ -1,4 +1,16 @@
 package org.example.model;
 
-public class CancellationRequest implements Request {
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class CancellationRequest extends CorrelatedMessage implements Request {
+    private long bookingId;
 }
@@ -0,0 +1,16 @@
+package org.example.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Carries the id the client picked for a request; the response to it carries the same id,
+ * so many requests can be in flight on one connection and be answered in any order.
+ */
+@Getter
+@Setter
+public abstract class CorrelatedMessage implements Serializable {
+    private long correlationId;
+}
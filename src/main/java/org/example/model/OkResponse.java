@@ -1,4 +1,4 @@
 package org.example.model;
 
-public class OkResponse implements  Response{
+public class OkResponse extends CorrelatedMessage implements Response {
 }
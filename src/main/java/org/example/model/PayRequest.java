@@ -1,4 +1,16 @@
 package org.example.model;
 
-public class PayRequest implements Request {
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class PayRequest extends CorrelatedMessage implements Request {
+    private long bookingId;
 }
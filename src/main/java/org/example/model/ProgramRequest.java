@@ -6,8 +6,8 @@ import lombok.*;
 @Setter
 @AllArgsConstructor
 @ToString
-@EqualsAndHashCode
-public class ProgramRequest implements Request {
+@EqualsAndHashCode(callSuper = false)
+public class ProgramRequest extends CorrelatedMessage implements Request {
 
     private String name;
     private String cnp;
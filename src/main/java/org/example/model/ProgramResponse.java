@@ -9,6 +9,8 @@ import lombok.ToString;
 @Getter
 @AllArgsConstructor
 @ToString
-public class ProgramResponse implements Response {
+public class ProgramResponse extends CorrelatedMessage implements Response {
     private ProgramStatus status;
+    // id to pay or cancel the booking with, only meaningful on success
+    private long bookingId;
 }
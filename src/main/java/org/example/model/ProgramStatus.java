@@ -1,5 +1,6 @@
 package org.example.model;
 
 public enum ProgramStatus {
-    SUCCESS,FAIL;
+    // BUSY: not handled because the server is overloaded, the request can be sent again later
+    SUCCESS,FAIL,BUSY;
 }
@@ -4,7 +4,9 @@ import java.io.Serializable;
 
 public interface Request extends Serializable {
 
+    long getCorrelationId();
 
+    void setCorrelationId(long correlationId);
 }
 
 
@@ -3,4 +3,8 @@ package org.example.model;
 import java.io.Serializable;
 
 public interface Response extends Serializable {
-}
\ No newline at end of file
+
+    long getCorrelationId();
+
+    void setCorrelationId(long correlationId);
+}
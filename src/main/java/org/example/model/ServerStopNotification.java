@@ -1,4 +1,4 @@
 package org.example.model;
 
-public class ServerStopNotification implements Response {
+public class ServerStopNotification extends CorrelatedMessage implements Response {
 }
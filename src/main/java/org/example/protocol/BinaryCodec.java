@@ -0,0 +1,178 @@
+package org.example.protocol;
+
+import org.example.model.*;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact encoding of the model types: a one byte tag, the 8 byte correlation id, then the fields in declaration order.
+ * Strings are an unsigned short byte length followed by UTF-8, hours are two bytes.
+ * A frame that is short or holds a value out of range fails to decode with an {@link IOException}, which closes the
+ * connection. Stateless, one instance is shared by every connection.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    static final byte PROGRAM_REQUEST = 1;
+    static final byte PAY_REQUEST = 2;
+    static final byte CANCELLATION_REQUEST = 3;
+    static final byte PROGRAM_RESPONSE = 16;
+    static final byte OK_RESPONSE = 17;
+    static final byte SERVER_STOP_NOTIFICATION = 18;
+
+    private static final int HEADER_LENGTH = 1 + Long.BYTES;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+    private static final ProgramStatus[] STATUSES = ProgramStatus.values();
+
+    @Override
+    public ByteBuffer encode(Object message, ByteBuffer out) throws IOException {
+        if (message instanceof ProgramRequest request) {
+            return encodeProgramRequest(request, out);
+        }
+        if (message instanceof ProgramResponse response) {
+            var payloadLength = HEADER_LENGTH + 1 + Long.BYTES;
+            out = MessageCodec.ensureRemaining(out, LENGTH_PREFIX + payloadLength);
+            out.putInt(payloadLength).put(PROGRAM_RESPONSE).putLong(response.getCorrelationId());
+            out.put((byte) response.getStatus().ordinal());
+            out.putLong(response.getBookingId());
+            return out;
+        }
+        if (message instanceof PayRequest request) {
+            return encodeBookingRequest(PAY_REQUEST, request.getCorrelationId(), request.getBookingId(), out);
+        }
+        if (message instanceof CancellationRequest request) {
+            return encodeBookingRequest(CANCELLATION_REQUEST, request.getCorrelationId(), request.getBookingId(), out);
+        }
+        long correlationId;
+        byte tag;
+        if (message instanceof OkResponse response) {
+            tag = OK_RESPONSE;
+            correlationId = response.getCorrelationId();
+        } else if (message instanceof ServerStopNotification notification) {
+            tag = SERVER_STOP_NOTIFICATION;
+            correlationId = notification.getCorrelationId();
+        } else {
+            throw new IOException("No binary encoding for " + message);
+        }
+        out = MessageCodec.ensureRemaining(out, LENGTH_PREFIX + HEADER_LENGTH);
+        out.putInt(HEADER_LENGTH).put(tag).putLong(correlationId);
+        return out;
+    }
+
+    @Override
+    public Object decode(ByteBuffer payload) throws IOException {
+        try {
+            var tag = payload.get();
+            var correlationId = payload.getLong();
+            CorrelatedMessage message = switch (tag) {
+                case PROGRAM_REQUEST -> new ProgramRequest(
+                        getString(payload),
+                        getString(payload),
+                        getIndex(payload, "location"),
+                        getIndex(payload, "treatment type"),
+                        new Hour(getInRange(payload, 24, "hour"), getInRange(payload, 60, "minute"))
+                );
+                case PAY_REQUEST -> new PayRequest(payload.getLong());
+                case CANCELLATION_REQUEST -> new CancellationRequest(payload.getLong());
+                case PROGRAM_RESPONSE -> new ProgramResponse(STATUSES[getInRange(payload, STATUSES.length, "status")], payload.getLong());
+                case OK_RESPONSE -> new OkResponse();
+                case SERVER_STOP_NOTIFICATION -> new ServerStopNotification();
+                default -> throw new IOException("Unknown message tag " + tag);
+            };
+            message.setCorrelationId(correlationId);
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Frame too short for its message", e);
+        }
+    }
+
+    // the upper bound comes from the configuration, checked by the service
+    private static int getIndex(ByteBuffer payload, String field) throws IOException {
+        var value = payload.getInt();
+        if (value < 0) {
+            throw new IOException("Negative " + field + " " + value);
+        }
+        return value;
+    }
+
+    private static int getInRange(ByteBuffer payload, int bound, String field) throws IOException {
+        var value = payload.get();
+        if (value < 0 || value >= bound) {
+            throw new IOException("Invalid " + field + " " + value);
+        }
+        return value;
+    }
+
+    private static ByteBuffer encodeBookingRequest(byte tag, long correlationId, long bookingId, ByteBuffer out) {
+        var payloadLength = HEADER_LENGTH + Long.BYTES;
+        out = MessageCodec.ensureRemaining(out, LENGTH_PREFIX + payloadLength);
+        out.putInt(payloadLength).put(tag).putLong(correlationId).putLong(bookingId);
+        return out;
+    }
+
+    private static ByteBuffer encodeProgramRequest(ProgramRequest request, ByteBuffer out) throws IOException {
+        var name = request.getName();
+        var cnp = request.getCnp();
+        // non ASCII strings are rare, only they pay for a byte array
+        var nameBytes = isAscii(name) ? null : name.getBytes(StandardCharsets.UTF_8);
+        var cnpBytes = isAscii(cnp) ? null : cnp.getBytes(StandardCharsets.UTF_8);
+        var payloadLength = HEADER_LENGTH
+                + Short.BYTES + (nameBytes == null ? name.length() : nameBytes.length)
+                + Short.BYTES + (cnpBytes == null ? cnp.length() : cnpBytes.length)
+                + Integer.BYTES + Integer.BYTES + 2;
+        out = MessageCodec.ensureRemaining(out, LENGTH_PREFIX + payloadLength);
+        out.putInt(payloadLength).put(PROGRAM_REQUEST).putLong(request.getCorrelationId());
+        putString(out, name, nameBytes);
+        putString(out, cnp, cnpBytes);
+        out.putInt(request.getLocation());
+        out.putInt(request.getTreatmentType());
+        out.put((byte) request.getTreatmentTime().getHour());
+        out.put((byte) request.getTreatmentTime().getMinute());
+        return out;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putString(ByteBuffer out, String value, byte[] utf8) throws IOException {
+        var length = utf8 == null ? value.length() : utf8.length;
+        if (length > MAX_STRING_LENGTH) {
+            throw new IOException("String too long for the binary format: " + length + " bytes");
+        }
+        out.putShort((short) length);
+        if (utf8 != null) {
+            out.put(utf8);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out.put((byte) value.charAt(i));
+        }
+    }
+
+    private static String getString(ByteBuffer payload) throws IOException {
+        var length = Short.toUnsignedInt(payload.getShort());
+        if (length > payload.remaining()) {
+            throw new IOException("String goes past the end of the frame");
+        }
+        String value;
+        if (payload.hasArray()) {
+            value = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        } else {
+            var bytes = new byte[length];
+            payload.get(payload.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        payload.position(payload.position() + length);
+        return value;
+    }
+}
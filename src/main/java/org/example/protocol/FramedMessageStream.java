@@ -0,0 +1,54 @@
+package org.example.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Length prefixed frames, reading and writing through buffers kept for the whole connection.
+ */
+class FramedMessageStream implements MessageStream {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final MessageCodec codec;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    FramedMessageStream(DataInputStream input, OutputStream output, MessageCodec codec) {
+        this.input = input;
+        this.output = output;
+        this.codec = codec;
+    }
+
+    @Override
+    public Object read() throws IOException {
+        var length = input.readInt();
+        if (length < 0 || length > MessageCodec.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocate(Math.max(length, readBuffer.capacity() * 2));
+        }
+        input.readFully(readBuffer.array(), 0, length);
+        readBuffer.clear().limit(length);
+        return codec.decode(readBuffer);
+    }
+
+    @Override
+    public void write(Object message) throws IOException {
+        writeBuffer.clear();
+        writeBuffer = codec.encode(message, writeBuffer);
+        output.write(writeBuffer.array(), 0, writeBuffer.position());
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+        output.close();
+    }
+}
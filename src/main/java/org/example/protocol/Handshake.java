@@ -0,0 +1,48 @@
+package org.example.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Picks the wire format when a client connects.
+ * A client that wants frames sends "MED" followed by the code of its preferred format and the server answers
+ * with the code of the format it accepted, which is the one used in both directions from then on.
+ * Object stream clients send no handshake, they are recognised by the first byte of the Java serialization header.
+ */
+public final class Handshake {
+
+    private static final byte[] MAGIC = {'M', 'E', 'D'};
+    public static final int HELLO_LENGTH = MAGIC.length + 1;
+    // first byte of ObjectStreamConstants.STREAM_MAGIC
+    public static final byte OBJECT_STREAM_FIRST_BYTE = (byte) 0xAC;
+
+    private Handshake() {
+    }
+
+    public static void writeHello(OutputStream output, WireFormat preferred) throws IOException {
+        output.write(MAGIC);
+        output.write(preferred.getCode());
+    }
+
+    public static WireFormat readHello(DataInputStream input) throws IOException {
+        var hello = new byte[HELLO_LENGTH];
+        input.readFully(hello);
+        return readHello(ByteBuffer.wrap(hello));
+    }
+
+    public static WireFormat readHello(ByteBuffer input) throws IOException {
+        for (var magicByte : MAGIC) {
+            if (input.get() != magicByte) {
+                throw new IOException("Unknown protocol");
+            }
+        }
+        try {
+            return WireFormat.fromCode(input.get());
+        } catch (IllegalArgumentException e) {
+            // a format this server doesn't know, fall back to Java serialization
+            return WireFormat.FRAMED;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.example.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames holding one Java serialized object each. Every frame carries its own stream header,
+ * so frames can be decoded independently of each other.
+ */
+public class JavaSerializationCodec implements MessageCodec {
+
+    @Override
+    public ByteBuffer encode(Object message, ByteBuffer out) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var objectOutput = new ObjectOutputStream(bytes)) {
+            objectOutput.writeObject(message);
+        }
+        out = MessageCodec.ensureRemaining(out, LENGTH_PREFIX + bytes.size());
+        out.putInt(bytes.size());
+        out.put(bytes.toByteArray());
+        return out;
+    }
+
+    @Override
+    public Object decode(ByteBuffer payload) throws IOException {
+        var bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        try (var objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objectInput.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.example.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns messages into length prefixed frames and back.
+ * A frame is a 4 byte big endian payload length followed by the payload.
+ */
+public interface MessageCodec {
+
+    int LENGTH_PREFIX = Integer.BYTES;
+    int MAX_FRAME_LENGTH = 1 << 20;
+
+    /**
+     * Writes the frame of the message at the position of the buffer.
+     *
+     * @return the buffer holding the frame, a bigger copy of out if it didn't fit
+     */
+    ByteBuffer encode(Object message, ByteBuffer out) throws IOException;
+
+    /**
+     * Reads one message from the payload of a frame, the length prefix already consumed.
+     */
+    Object decode(ByteBuffer payload) throws IOException;
+
+    static MessageCodec forFormat(WireFormat format) {
+        return switch (format) {
+            case BINARY -> BinaryCodec.INSTANCE;
+            case FRAMED -> new JavaSerializationCodec();
+            case OBJECT_STREAM -> throw new IllegalArgumentException("Object streams aren't framed");
+        };
+    }
+
+    static ByteBuffer ensureRemaining(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        var grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
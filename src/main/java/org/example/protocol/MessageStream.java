@@ -0,0 +1,58 @@
+package org.example.protocol;
+
+import java.io.*;
+import java.net.Socket;
+
+/**
+ * Blocking message exchange over a socket, in whichever wire format was negotiated.
+ * Not thread safe, reads and writes each need a single owner at a time.
+ */
+public interface MessageStream extends Closeable {
+
+    Object read() throws IOException, ClassNotFoundException;
+
+    void write(Object message) throws IOException;
+
+    /**
+     * Client side: sends the handshake for the preferred format and uses the one the server accepted.
+     */
+    static MessageStream connect(Socket socket, WireFormat preferred) throws IOException {
+        if (preferred == WireFormat.OBJECT_STREAM) {
+            var output = new ObjectOutputStream(socket.getOutputStream());
+            output.flush();
+            return new ObjectMessageStream(new ObjectInputStream(socket.getInputStream()), output);
+        }
+        socket.setTcpNoDelay(true);
+        var output = new BufferedOutputStream(socket.getOutputStream());
+        var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Handshake.writeHello(output, preferred);
+        output.flush();
+        var accepted = WireFormat.fromCode(input.readByte());
+        return new FramedMessageStream(input, output, MessageCodec.forFormat(accepted));
+    }
+
+    /**
+     * Server side: recognises object stream clients, otherwise answers the handshake.
+     */
+    static MessageStream accept(Socket socket) throws IOException {
+        var input = new BufferedInputStream(socket.getInputStream());
+        input.mark(1);
+        var first = input.read();
+        input.reset();
+        if (first == -1) {
+            throw new EOFException("Client closed the connection before sending anything");
+        }
+        if ((byte) first == Handshake.OBJECT_STREAM_FIRST_BYTE) {
+            var output = new ObjectOutputStream(socket.getOutputStream());
+            output.flush();
+            return new ObjectMessageStream(new ObjectInputStream(input), output);
+        }
+        socket.setTcpNoDelay(true);
+        var dataInput = new DataInputStream(input);
+        var accepted = Handshake.readHello(dataInput);
+        var output = new BufferedOutputStream(socket.getOutputStream());
+        output.write(accepted.getCode());
+        output.flush();
+        return new FramedMessageStream(dataInput, output, MessageCodec.forFormat(accepted));
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.protocol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+class ObjectMessageStream implements MessageStream {
+
+    private final ObjectInputStream input;
+    private final ObjectOutputStream output;
+
+    ObjectMessageStream(ObjectInputStream input, ObjectOutputStream output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    @Override
+    public Object read() throws IOException, ClassNotFoundException {
+        return input.readObject();
+    }
+
+    @Override
+    public void write(Object message) throws IOException {
+        output.writeObject(message);
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+        output.close();
+    }
+}
@@ -0,0 +1,27 @@
+package org.example.protocol;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum WireFormat {
+    // ObjectOutputStream/ObjectInputStream kept open for the whole connection, no handshake
+    OBJECT_STREAM((byte) 0),
+    // every message is a 4 byte length followed by a standalone Java serialized payload
+    FRAMED((byte) 'J'),
+    // every message is a 4 byte length followed by a tagged binary payload
+    BINARY((byte) 'B');
+
+    // sent in the handshake to name the format
+    private final byte code;
+
+    public static WireFormat fromCode(byte code) {
+        for (var format : values()) {
+            if (format != OBJECT_STREAM && format.code == code) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown wire format " + code);
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sheds requests the server can't take in time rather than queueing them: at most maxInFlight requests are handled
+ * or waiting at the same time over every connection, and each connection may send at most clientRate requests per
+ * second, with bursts of clientBurst. A shed request is answered BUSY right away.
+ */
+class AdmissionControl {
+
+    private final int maxInFlight;
+    private final int clientRate;
+    private final int clientBurst;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param maxInFlight 0 for no limit
+     * @param clientRate  requests per second of each connection, 0 for no limit
+     * @param clientBurst requests a connection may send at once, 0 for one second of its rate
+     */
+    AdmissionControl(int maxInFlight, int clientRate, int clientBurst) {
+        this.maxInFlight = maxInFlight;
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst > 0 ? clientBurst : Math.max(1, clientRate);
+    }
+
+    /**
+     * @return true if the request can go on, {@link #release()} has to be called once it is answered
+     */
+    boolean tryAcquire() {
+        if (maxInFlight <= 0) {
+            inFlight.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            var current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return the rate limit of one connection, null when there is none
+     */
+    RateLimiter newRateLimiter() {
+        return clientRate > 0 ? new RateLimiter(clientRate, clientBurst) : null;
+    }
+
+    /**
+     * Token bucket refilled at the rate, holding at most the burst.
+     * Used by the thread reading the connection only.
+     */
+    static class RateLimiter {
+        private final double tokensPerNano;
+        private final double burst;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private RateLimiter(int rate, int burst) {
+            this.tokensPerNano = rate / (double) TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        boolean tryTake() {
+            var now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
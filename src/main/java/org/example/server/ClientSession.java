@@ -0,0 +1,169 @@
+package org.example.server;
+
+import org.example.logging.AsyncLog;
+import org.example.logging.LogLevel;
+import org.example.metrics.Metrics;
+import org.example.model.*;
+import org.example.service.MedicalServiceImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Request handling of one connected client, shared by every server front end.
+ * Requests run concurrently and may be answered out of order. Pay and cancel requests name their booking,
+ * which the client only learns from the program response, and requests for the same booking run in the order
+ * they were received, which keeps the program -> pay -> cancel order of the client.
+ */
+class ClientSession {
+
+    private final MedicalServiceImpl medicalService;
+    private final Executor requestExecutor;
+    private final Metrics metrics;
+    // books the program requests in batches, null to book each one on the request executor
+    private final ProgramBatcher programBatcher;
+    private final AdmissionControl admissionControl;
+    // null when the connections have no rate limit
+    private final AdmissionControl.RateLimiter rateLimiter;
+
+    // last pay or cancel request received for each booking still running, guarded by this
+    private final Map<Long, CompletableFuture<Void>> lastForBooking = new HashMap<>();
+
+    ClientSession(MedicalServiceImpl medicalService, Executor requestExecutor, ProgramBatcher programBatcher,
+                  AdmissionControl admissionControl) {
+        this.medicalService = medicalService;
+        this.requestExecutor = requestExecutor;
+        this.programBatcher = programBatcher;
+        this.admissionControl = admissionControl;
+        this.rateLimiter = admissionControl.newRateLimiter();
+        this.metrics = medicalService.getMetrics();
+    }
+
+    /**
+     * Schedules the request on the request executor; the response carries the correlation id of the request.
+     * A request over the limits of the admission control, or finding the request executor full, is answered BUSY.
+     */
+    CompletableFuture<Response> submit(Request request) {
+        var type = typeOf(request);
+        if (type == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!admissionControl.tryAcquire()) {
+            metrics.requestShed(type);
+            return CompletableFuture.completedFuture(busy(request));
+        }
+        // checked second so a request shed for the in-flight limit keeps its token
+        if (rateLimiter != null && !rateLimiter.tryTake()) {
+            admissionControl.release();
+            metrics.requestShed(type);
+            return CompletableFuture.completedFuture(busy(request));
+        }
+        var begin = System.nanoTime();
+        CompletableFuture<Response> response;
+        try {
+            response = switch (type) {
+                case PROGRAM -> submitProgramRequest((ProgramRequest) request);
+                case PAY -> afterPreviousForBooking(((PayRequest) request).getBookingId(), request);
+                case CANCEL -> afterPreviousForBooking(((CancellationRequest) request).getBookingId(), request);
+            };
+        } catch (RejectedExecutionException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        metrics.requestStarted();
+        return response
+                .exceptionally(error -> busyIfRejected(error, request, type))
+                .whenComplete((result, error) -> {
+                    admissionControl.release();
+                    metrics.requestCompleted(type, System.nanoTime() - begin);
+                });
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    private static Metrics.RequestType typeOf(Request request) {
+        if (request instanceof ProgramRequest) {
+            return Metrics.RequestType.PROGRAM;
+        } else if (request instanceof PayRequest) {
+            return Metrics.RequestType.PAY;
+        } else if (request instanceof CancellationRequest) {
+            return Metrics.RequestType.CANCEL;
+        }
+        return null;
+    }
+
+    private CompletableFuture<Response> submitProgramRequest(ProgramRequest programRequest) {
+        if (programBatcher != null) {
+            AsyncLog.sampled(LogLevel.INFO, "Handling program request ", programRequest);
+            return programBatcher.submit(programRequest).thenApply(result -> correlate(result, programRequest));
+        }
+        return CompletableFuture
+                .supplyAsync(() -> handleProgramRequest(programRequest), requestExecutor)
+                .thenApply(result -> correlate(result, programRequest));
+    }
+
+    private synchronized CompletableFuture<Response> afterPreviousForBooking(long bookingId, Request request) {
+        var previous = lastForBooking.getOrDefault(bookingId, CompletableFuture.completedFuture(null));
+        var response = previous.thenApplyAsync(ignored -> handleBookingRequest(request), requestExecutor);
+        // a failed request doesn't stop the ones after it
+        var done = response.<Void>handle((ignored, error) -> null);
+        lastForBooking.put(bookingId, done);
+        done.thenRun(() -> forget(bookingId, done));
+        return response.thenApply(result -> correlate(result, request));
+    }
+
+    private synchronized void forget(long bookingId, CompletableFuture<Void> done) {
+        lastForBooking.remove(bookingId, done);
+    }
+
+    private Response handleProgramRequest(ProgramRequest programRequest) {
+        rejectIfStopping();
+        AsyncLog.sampled(LogLevel.INFO, "Handling program request ", programRequest);
+        return medicalService.processProgramRequest(programRequest);
+    }
+
+    private Response handleBookingRequest(Request request) {
+        rejectIfStopping();
+        if (request instanceof PayRequest payRequest) {
+            AsyncLog.sampled(LogLevel.INFO, "Handling pay request ", request);
+            return medicalService.processPayment(payRequest.getBookingId());
+        }
+        AsyncLog.sampled(LogLevel.INFO, "Handling cancel payment ", request);
+        return medicalService.cancelPayment(((CancellationRequest) request).getBookingId());
+    }
+
+    // the request executor is shutting down, the request is answered BUSY instead of started
+    private static void rejectIfStopping() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new RejectedExecutionException("Request executor stopping");
+        }
+    }
+
+    private Response busyIfRejected(Throwable error, Request request, Metrics.RequestType type) {
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            metrics.requestShed(type);
+            return busy(request);
+        }
+        throw error instanceof CompletionException completion ? completion : new CompletionException(cause);
+    }
+
+    private static Response busy(Request request) {
+        var bookingId = request instanceof PayRequest payRequest ? payRequest.getBookingId()
+                : request instanceof CancellationRequest cancellationRequest ? cancellationRequest.getBookingId()
+                : MedicalServiceImpl.NO_BOOKING;
+        return correlate(new ProgramResponse(ProgramStatus.BUSY, bookingId), request);
+    }
+
+    private static Response correlate(Response response, Request request) {
+        if (response != null) {
+            response.setCorrelationId(request.getCorrelationId());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,39 @@
+package org.example.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on the delegate with at most a fixed number of them running at the same time.
+ * Meant for virtual threads, where waiting for a permit costs no platform thread.
+ * A task interrupted while waiting, by a shutdown, still runs with its thread interrupted, so whoever waits on it gets
+ * an answer rather than none.
+ */
+class LimitedExecutor implements Executor {
+
+    private final Executor delegate;
+    private final Semaphore permits;
+
+    LimitedExecutor(Executor delegate, int limit) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(limit);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        delegate.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.run();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+}
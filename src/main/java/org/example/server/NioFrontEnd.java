@@ -0,0 +1,334 @@
+package org.example.server;
+
+import org.example.logging.AsyncLog;
+import org.example.logging.LogLevel;
+import org.example.model.Request;
+import org.example.model.Response;
+import org.example.model.ServerStopNotification;
+import org.example.protocol.Handshake;
+import org.example.protocol.MessageCodec;
+import org.example.service.MedicalServiceImpl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non blocking front end: a few event loops multiplex every client connection with selectors
+ * and hand the decoded requests to the request executor, so the number of clients isn't tied to the pool size.
+ * Clients have to use one of the framed wire formats, object streams can't be decoded without blocking.
+ */
+class NioFrontEnd {
+
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int WRITE_BUFFER_SIZE = 256;
+
+    private final int port;
+    private final MedicalServiceImpl medicalService;
+    private final Executor requestExecutor;
+    private final ProgramBatcher programBatcher;
+    private final AdmissionControl admissionControl;
+    private final AtomicBoolean shouldEnd;
+    private final EventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+
+    NioFrontEnd(int port, int eventLoopCount, MedicalServiceImpl medicalService,
+                Executor requestExecutor, ProgramBatcher programBatcher, AdmissionControl admissionControl,
+                AtomicBoolean shouldEnd) throws IOException {
+        this.port = port;
+        this.medicalService = medicalService;
+        this.requestExecutor = requestExecutor;
+        this.programBatcher = programBatcher;
+        this.admissionControl = admissionControl;
+        this.shouldEnd = shouldEnd;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoopCount)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+        }
+    }
+
+    /**
+     * Accepts clients on the calling thread until {@link #stop()} is called.
+     */
+    void run() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (int i = 0; i < eventLoops.length; i++) {
+            new Thread(eventLoops[i], "nio-event-loop-" + i).start();
+        }
+        int next = 0;
+        while (!shouldEnd.get()) {
+            AsyncLog.log(LogLevel.DEBUG, "Waiting for clients ...");
+            SocketChannel client;
+            try {
+                client = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            }
+            AsyncLog.log(LogLevel.INFO, "Client connected ...");
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            eventLoops[next].register(client);
+            next = (next + 1) % eventLoops.length;
+        }
+    }
+
+    void stop() {
+        shouldEnd.set(true);
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            AsyncLog.log(LogLevel.WARN, "Closing the server channel failed ", e);
+        }
+        for (var eventLoop : eventLoops) {
+            eventLoop.selector.wakeup();
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(Connection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shouldEnd.get()) {
+                    selector.select();
+                    registerPendingChannels();
+                    flushPendingWrites();
+                    var keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        var key = keys.next();
+                        keys.remove();
+                        var connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            AsyncLog.log(LogLevel.WARN, "Closing connection after error ", e);
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                AsyncLog.log(LogLevel.ERROR, "Event loop failed ", e);
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                var connection = new Connection(channel, this);
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void flushPendingWrites() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                if (connection.key == null || !connection.key.isValid()) {
+                    continue;
+                }
+                try {
+                    connection.write();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void closeAll() {
+            AsyncLog.log(LogLevel.INFO, "Stopping server");
+            for (var key : selector.keys()) {
+                var connection = (Connection) key.attachment();
+                connection.sendStopNotification();
+                connection.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                AsyncLog.log(LogLevel.WARN, "Closing the selector failed ", e);
+            }
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final EventLoop eventLoop;
+        private final ClientSession session = new ClientSession(medicalService, requestExecutor, programBatcher, admissionControl);
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // encoded responses not written yet, in write mode, guarded by the connection
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        // null until the handshake is read
+        private volatile MessageCodec codec;
+        private SelectionKey key;
+        private boolean closed;
+
+        Connection(SocketChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            session.getMetrics().connectionOpened();
+        }
+
+        // event loop thread only
+        void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            if (codec == null && !readHandshake()) {
+                readBuffer.compact();
+                return;
+            }
+            var neededForNextFrame = 0;
+            while (readBuffer.remaining() >= MessageCodec.LENGTH_PREFIX) {
+                var length = readBuffer.getInt(readBuffer.position());
+                if (length < 0 || length > MessageCodec.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (readBuffer.remaining() < MessageCodec.LENGTH_PREFIX + length) {
+                    neededForNextFrame = MessageCodec.LENGTH_PREFIX + length;
+                    break;
+                }
+                var frameEnd = readBuffer.position() + MessageCodec.LENGTH_PREFIX + length;
+                var dataEnd = readBuffer.limit();
+                readBuffer.position(readBuffer.position() + MessageCodec.LENGTH_PREFIX).limit(frameEnd);
+                var message = codec.decode(readBuffer);
+                readBuffer.limit(dataEnd).position(frameEnd);
+                if (!(message instanceof Request request)) {
+                    throw new IOException("Unexpected message " + message);
+                }
+                session.submit(request).whenComplete((response, error) -> {
+                    if (error != null) {
+                        AsyncLog.log(LogLevel.ERROR, "Request failed ", error);
+                    } else if (response != null) {
+                        send(response);
+                    }
+                });
+            }
+            readBuffer.compact();
+            if (neededForNextFrame > readBuffer.capacity()) {
+                readBuffer = MessageCodec.ensureRemaining(readBuffer, neededForNextFrame - readBuffer.position());
+            }
+        }
+
+        // event loop thread only, returns false while the handshake is incomplete
+        private boolean readHandshake() throws IOException {
+            if (readBuffer.remaining() >= 1 && readBuffer.get(readBuffer.position()) == Handshake.OBJECT_STREAM_FIRST_BYTE) {
+                throw new IOException("Object stream clients aren't supported in NIO mode, use wire=binary or wire=framed");
+            }
+            if (readBuffer.remaining() < Handshake.HELLO_LENGTH) {
+                return false;
+            }
+            var accepted = Handshake.readHello(readBuffer);
+            codec = MessageCodec.forFormat(accepted);
+            synchronized (this) {
+                writeBuffer.put(accepted.getCode());
+            }
+            write();
+            return true;
+        }
+
+        // event loop thread only
+        void write() throws IOException {
+            synchronized (this) {
+                writeBuffer.flip();
+                try {
+                    channel.write(writeBuffer);
+                } finally {
+                    writeBuffer.compact();
+                }
+                if (writeBuffer.position() > 0) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void sendStopNotification() {
+            if (codec == null) {
+                return;
+            }
+            try {
+                synchronized (this) {
+                    writeBuffer = codec.encode(new ServerStopNotification(), writeBuffer);
+                    writeBuffer.flip();
+                    channel.write(writeBuffer);
+                    writeBuffer.compact();
+                }
+            } catch (IOException e) {
+                AsyncLog.log(LogLevel.WARN, "Error ", e);
+            }
+        }
+
+        // event loop thread only
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            session.getMetrics().connectionClosed();
+            try {
+                if (key != null) {
+                    key.cancel();
+                }
+                channel.close();
+                AsyncLog.log(LogLevel.INFO, "Closing connection from event loop");
+            } catch (IOException e) {
+                AsyncLog.log(LogLevel.WARN, "Error ", e);
+            }
+        }
+
+        // request executor threads
+        private void send(Response response) {
+            try {
+                synchronized (this) {
+                    writeBuffer = codec.encode(response, writeBuffer);
+                }
+            } catch (IOException e) {
+                AsyncLog.log(LogLevel.ERROR, "Encoding the response failed ", e);
+                return;
+            }
+            eventLoop.requestWrite(this);
+        }
+    }
+}
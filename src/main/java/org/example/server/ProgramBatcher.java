@@ -0,0 +1,106 @@
+package org.example.server;
+
+import org.example.model.ProgramRequest;
+import org.example.model.ProgramResponse;
+import org.example.service.MedicalServiceImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the program requests of every connection and books them in batches, each with one acquisition of the
+ * booking locks and one write of the program file. A batch starts with the first request waiting and takes the ones
+ * arriving within the window after it, up to the maximum size; the requests waiting while a batch is booked go in the
+ * next one, so under load the batches grow by themselves. The responses are completed on the request executor so
+ * writing them doesn't hold up the next batch.
+ */
+class ProgramBatcher {
+
+    private final MedicalServiceImpl medicalService;
+    private final Executor responseExecutor;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread batcher;
+
+    ProgramBatcher(MedicalServiceImpl medicalService, Executor responseExecutor, long windowMicros, int maxBatch) {
+        this.medicalService = medicalService;
+        this.responseExecutor = responseExecutor;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.batcher = new Thread(this::batchLoop, "program-batcher");
+        this.batcher.setDaemon(true);
+        this.batcher.start();
+    }
+
+    CompletableFuture<ProgramResponse> submit(ProgramRequest request) {
+        var pending = new Pending(request, new CompletableFuture<>());
+        queue.add(pending);
+        return pending.response;
+    }
+
+    void stop() {
+        batcher.interrupt();
+    }
+
+    private void batchLoop() {
+        var batch = new ArrayList<Pending>(maxBatch);
+        while (true) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                batch.forEach(pending -> pending.response.completeExceptionally(e));
+                return;
+            }
+            var requests = new ArrayList<ProgramRequest>(batch.size());
+            batch.forEach(pending -> requests.add(pending.request));
+            var completed = List.copyOf(batch);
+            batch.clear();
+            try {
+                var responses = medicalService.processProgramRequests(requests);
+                medicalService.getMetrics().programBatchProcessed(requests.size());
+                Runnable complete = () -> {
+                    for (int i = 0; i < completed.size(); i++) {
+                        completed.get(i).response.complete(responses.get(i));
+                    }
+                };
+                try {
+                    responseExecutor.execute(complete);
+                } catch (RejectedExecutionException e) {
+                    // the bookings are made, so they are answered even when the executor is full
+                    complete.run();
+                }
+            } catch (RuntimeException e) {
+                completed.forEach(pending -> pending.response.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void collect(List<Pending> batch) throws InterruptedException {
+        batch.add(queue.take());
+        var deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+            if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                continue;
+            }
+            var left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return;
+            }
+            var next = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private record Pending(ProgramRequest request, CompletableFuture<ProgramResponse> response) {
+    }
+}
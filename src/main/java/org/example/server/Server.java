@@ -1,14 +1,24 @@
 package org.example.server;
 
+import org.example.logging.AsyncLog;
+import org.example.logging.LogLevel;
 import lombok.RequiredArgsConstructor;
+import org.example.Options;
+import org.example.metrics.MetricsEndpoint;
+import org.example.metrics.MetricsMBean;
 import org.example.service.MedicalServiceImpl;
 
+import javax.management.JMException;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -21,50 +31,154 @@ public class Server {
     private final MedicalServiceImpl medicalService;
     private final int verificationDuration;
     private final TimeUnit verificationTimeUnit;
+    private final Options options;
+    // runs the connections, null in NIO mode
     private ExecutorService executor;
+    // runs the requests read from the connections
+    private ExecutorService requestExecutor;
     private ScheduledExecutorService scheduledVerification;
+    // null unless batchWindow is set
+    private ProgramBatcher programBatcher;
+    private AdmissionControl admissionControl;
 
     private ServerSocket server = null;
+    private NioFrontEnd nioFrontEnd = null;
+    private MetricsEndpoint metricsEndpoint = null;
     private AtomicBoolean shouldEnd = new AtomicBoolean();
+    private final AtomicBoolean stopped = new AtomicBoolean();
 
     public void start() {
+        startMetrics();
         scheduledVerification = Executors.newSingleThreadScheduledExecutor();
         scheduledVerification.scheduleAtFixedRate(
                 () -> {
                     try {
                         medicalService.verify();
                     } catch (Exception ex) {
-                        ex.printStackTrace();
+                        AsyncLog.log(LogLevel.ERROR, "Verification failed ", ex);
                     }
                 },
                 0,
                 verificationDuration,
                 verificationTimeUnit
         );
-        executor = Executors.newFixedThreadPool(numberOfThreads);
+        admissionControl = new AdmissionControl(options.getMaxInFlight(), options.getClientRate(), options.getClientBurst());
+        switch (options.getServerMode()) {
+            case NIO -> {
+                requestExecutor = boundedPool(numberOfThreads, options.getRequestQueue());
+                startBatcher(requestExecutor);
+                startNio();
+            }
+            case VIRTUAL -> {
+                executor = Executors.newVirtualThreadPerTaskExecutor();
+                requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+                var limitedExecutor = new LimitedExecutor(requestExecutor, numberOfThreads);
+                startBatcher(limitedExecutor);
+                startBlocking(limitedExecutor);
+            }
+            default -> {
+                executor = boundedPool(numberOfThreads, options.getMaxPendingConnections());
+                requestExecutor = boundedPool(numberOfThreads, options.getRequestQueue());
+                startBatcher(requestExecutor);
+                startBlocking(requestExecutor);
+            }
+        }
+    }
+
+    // a fixed pool rejecting the tasks beyond queueSize waiting ones, instead of queueing them without end
+    private static ExecutorService boundedPool(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize));
+    }
 
+    private void startBatcher(Executor responseExecutor) {
+        if (options.getBatchWindow() > 0) {
+            programBatcher = new ProgramBatcher(medicalService, responseExecutor, options.getBatchWindow(), options.getBatchSize());
+        }
+    }
+
+    private void startBlocking(Executor workerRequestExecutor) {
         try {
             server = new ServerSocket(port);
             while (!shouldEnd.get()) {
-                System.out.println("Waiting for clients ...");
+                AsyncLog.log(LogLevel.DEBUG, "Waiting for clients ...");
                 Socket client = server.accept();
-                System.out.println("Client connected ...");
-                executor.submit(new Worker(client, medicalService, shouldEnd));
+                AsyncLog.log(LogLevel.INFO, "Client connected ...");
+                try {
+                    executor.execute(new Worker(client, medicalService, shouldEnd, workerRequestExecutor, programBatcher,
+                            admissionControl));
+                } catch (RejectedExecutionException e) {
+                    // too many connections waiting for a worker already, the client can connect again later
+                    AsyncLog.log(LogLevel.WARN, "Too many pending connections, closing ", client);
+                    medicalService.getMetrics().connectionRejected();
+                    client.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Starting org.example.server errror ", e);
+        } finally {
+            AsyncLog.log(LogLevel.INFO, "Shutting down executors from org.example.server");
+            stop();
+        }
+    }
+
+    private void startMetrics() {
+        try {
+            MetricsMBean.register(medicalService.getMetrics());
+        } catch (JMException e) {
+            AsyncLog.log(LogLevel.WARN, "Couldn't register the metrics MBean ", e);
+        }
+        if (options.getMetricsPort() > 0) {
+            try {
+                metricsEndpoint = new MetricsEndpoint(medicalService.getMetrics(), options.getMetricsPort());
+                metricsEndpoint.start();
+                AsyncLog.log(LogLevel.INFO, "Metrics on http://localhost:" + options.getMetricsPort() + "/metrics");
+            } catch (IOException e) {
+                AsyncLog.log(LogLevel.WARN, "Couldn't start the metrics endpoint ", e);
             }
+        }
+    }
+
+    private void startNio() {
+        try {
+            nioFrontEnd = new NioFrontEnd(port, options.getEventLoops(), medicalService, requestExecutor, programBatcher,
+                    admissionControl, shouldEnd);
+            nioFrontEnd.run();
         } catch (IOException e) {
             throw new RuntimeException("Starting org.example.server errror ", e);
         } finally {
-            System.out.println("Shutting down executors from org.example.server");
+            AsyncLog.log(LogLevel.INFO, "Shutting down executors from org.example.server");
             stop();
         }
     }
 
+    /**
+     * Stops the server and exits, once: the scheduled stop and the end of the accept loop both get here.
+     */
     public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
         try {
             shouldEnd.set(true);
-            executor.shutdownNow();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            requestExecutor.shutdownNow();
+            if (programBatcher != null) {
+                programBatcher.stop();
+            }
             scheduledVerification.shutdownNow();
-            server.close();
+            if (nioFrontEnd != null) {
+                nioFrontEnd.stop();
+            }
+            if (server != null) {
+                server.close();
+            }
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+            }
+            medicalService.close();
+            AsyncLog.flush(1, TimeUnit.SECONDS);
             System.exit(0);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -0,0 +1,10 @@
+package org.example.server;
+
+public enum ServerMode {
+    // one pool thread per connected client running a Worker
+    BLOCKING,
+    // a few selector threads multiplexing every connection, requests handled on the pool
+    NIO,
+    // one virtual thread per connected client, the thread count only limits concurrent service calls
+    VIRTUAL;
+}
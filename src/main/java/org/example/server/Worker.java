@@ -1,101 +1,101 @@
 package org.example.server;
 
+import org.example.logging.AsyncLog;
+import org.example.logging.LogLevel;
 import org.example.model.*;
+import org.example.protocol.MessageStream;
 import org.example.service.MedicalServiceImpl;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Worker implements Runnable {
 
-    private final MedicalServiceImpl medicalService;
+    private final ClientSession session;
 
     private final Socket connection;
-    private final ObjectInputStream input;
-    private final ObjectOutputStream output;
-    private ProgramRequest lastSuccessfulProgramRequest;
+    private MessageStream stream;
     private final AtomicBoolean shouldEnd;
 
     public Worker(Socket conn, MedicalServiceImpl medicalService, AtomicBoolean shouldEnd) {
+        // requests handled on the worker thread, one at a time
+        this(conn, medicalService, shouldEnd, Runnable::run);
+    }
+
+    public Worker(Socket conn, MedicalServiceImpl medicalService, AtomicBoolean shouldEnd, Executor requestExecutor) {
+        this(conn, medicalService, shouldEnd, requestExecutor, null, new AdmissionControl(0, 0, 0));
+    }
+
+    /**
+     * @param requestExecutor runs the requests read by this worker, which answers them as they complete
+     * @param programBatcher books the program requests of every worker together, null to book them one by one
+     * @param admissionControl limits shared by every worker
+     */
+    Worker(Socket conn, MedicalServiceImpl medicalService, AtomicBoolean shouldEnd, Executor requestExecutor,
+           ProgramBatcher programBatcher, AdmissionControl admissionControl) {
         this.connection = conn;
-        this.medicalService = medicalService;
+        this.session = new ClientSession(medicalService, requestExecutor, programBatcher, admissionControl);
         this.shouldEnd = shouldEnd;
-        try {
-            output = new ObjectOutputStream(connection.getOutputStream());
-            output.flush();
-            input = new ObjectInputStream(connection.getInputStream());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
     }
 
     @Override
     public void run() {
+        session.getMetrics().connectionOpened();
+        try {
+            // done here rather than in the constructor so a slow client doesn't hold up the accepting thread
+            stream = MessageStream.accept(connection);
+        } catch (IOException e) {
+            AsyncLog.log(LogLevel.WARN, "Handshake error ", e);
+            closeConnection();
+            return;
+        }
         while (!shouldEnd.get()) {
             try {
-                Object request = input.readObject();
-                Object response = handleRequest((Request) request);
-                if (response != null) {
-                    sendResponse((Response) response);
-                }
-            } catch (IOException | RuntimeException | ClassNotFoundException e) {
-                e.printStackTrace();
-            }
-/*
-            try {
-                System.out.println("Sleeping");
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                Object request = stream.read();
+                session.submit((Request) request).whenComplete((response, error) -> {
+                    if (error != null) {
+                        AsyncLog.log(LogLevel.ERROR, "Request failed ", error);
+                    } else if (response != null) {
+                        sendResponse(response);
+                    }
+                });
+            } catch (IOException e) {
+                // the stream can't be read anymore, most likely the client went away
+                AsyncLog.log(LogLevel.WARN, "Reading error ", e);
+                break;
+            } catch (RuntimeException | ClassNotFoundException e) {
+                AsyncLog.log(LogLevel.WARN, "Unreadable request ", e);
             }
-*/
         }
 
         if (shouldEnd.get()) {
-            System.out.println("Stopping server");
+            AsyncLog.log(LogLevel.INFO, "Stopping server");
             sendResponse(new ServerStopNotification());
         }
-        try {
-            input.close();
-            output.close();
-            connection.close();
-            System.out.println("Closing connection from worker");
-        } catch (IOException e) {
-            System.out.println("Error " + e);
-        }
+        closeConnection();
     }
 
-    private Object handleRequest(Request request) {
-        if (request instanceof ProgramRequest programRequest) {
-            System.out.println("Handling program request " + programRequest.toString());
-            var status = medicalService.processProgramRequest(programRequest);
-            if (status.getStatus() == ProgramStatus.SUCCESS) {
-                // TODO: use mutex here
-                lastSuccessfulProgramRequest = programRequest;
+    private void closeConnection() {
+        session.getMetrics().connectionClosed();
+        try {
+            if (stream != null) {
+                stream.close();
             }
-
-            return status;
-        }
-        if (request instanceof PayRequest) {
-            System.out.println("Handling pay request " + request);
-            return medicalService.processPayment(lastSuccessfulProgramRequest);
-        }
-        if (request instanceof CancellationRequest) {
-            System.out.println("Handling cancel payment " + request);
-            return medicalService.cancelPayment(lastSuccessfulProgramRequest);
+            connection.close();
+            AsyncLog.log(LogLevel.INFO, "Closing connection from worker");
+        } catch (IOException e) {
+            AsyncLog.log(LogLevel.WARN, "Error ", e);
         }
-        return null;
     }
 
-    private void sendResponse(Response response) {
+    // responses are written from the request executor threads
+    private synchronized void sendResponse(Response response) {
         try {
-            output.writeObject(response);
-            output.flush();
+            stream.write(response);
         } catch (IOException e) {
-            e.printStackTrace();
+            AsyncLog.log(LogLevel.WARN, "Writing the response failed ", e);
         }
     }
 }
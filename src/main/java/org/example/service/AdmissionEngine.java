@@ -0,0 +1,34 @@
+package org.example.service;
+
+import org.example.Config;
+
+/**
+ * Decides whether a client fits in a (location, treatment) pair for every minute of the requested interval.
+ * Intervals are inclusive at both ends.
+ */
+interface AdmissionEngine {
+
+    /**
+     * Admits one more client on [minutesStart, minutesEnd] if no minute would go over the capacity of the pair.
+     *
+     * @return true if the client was admitted and the occupancy updated
+     */
+    boolean tryAdmit(int location, int treatmentType, int minutesStart, int minutesEnd);
+
+    /**
+     * Releases a client previously admitted with {@link #tryAdmit(int, int, int, int)}.
+     */
+    void release(int location, int treatmentType, int minutesStart, int minutesEnd);
+
+    /**
+     * @return true if the caller has to hold the lock of the pair while admitting or releasing
+     */
+    boolean requiresLock();
+
+    static AdmissionEngine create(Config config, AdmissionMode mode) {
+        return switch (mode) {
+            case INDEXED -> new CapacityIndex(config);
+            case LOCK_FREE -> new LockFreeAdmissionEngine(config);
+        };
+    }
+}
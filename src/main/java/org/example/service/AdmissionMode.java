@@ -0,0 +1,8 @@
+package org.example.service;
+
+public enum AdmissionMode {
+    // per minute counters guarded by the booking locks
+    INDEXED,
+    // per minute atomic counters updated with CAS, checked before taking any lock
+    LOCK_FREE;
+}
@@ -0,0 +1,316 @@
+package org.example.service;
+
+import org.example.metrics.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append only text file kept open for the whole run. Records are queued by the callers and written by a background
+ * thread, which takes everything queued so far and writes it with a single write, and a single force when one of
+ * the records asked for it, so the cost of the system calls is shared by every record of the batch.
+ * Only the writer thread touches the channel, an interrupted caller would close it.
+ */
+class AppendLog implements Closeable {
+
+    private static final int MAX_BATCH = 4096;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final Path path;
+    // replaced by compact, guarded by fileLock
+    private FileChannel channel;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    // held by the writer thread while writing a batch and by runExclusive
+    private final Lock fileLock = new ReentrantLock();
+    private final List<Entry> batch = new ArrayList<>();
+    private final Thread writer;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // queued by close, the writer stops after writing it
+    private volatile Entry lastEntry;
+    private final LatencyHistogram writeTimes;
+
+    /**
+     * @param writeTimes records how long each batch takes to write
+     */
+    AppendLog(Path path, LatencyHistogram writeTimes) throws IOException {
+        this.path = path;
+        this.writeTimes = writeTimes;
+        this.channel = openForAppend(path);
+        this.writer = new Thread(this::writeLoop, "append-log-" + path.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues one record, a line without its line separator.
+     *
+     * @return completed when the record is as durable as asked
+     */
+    CompletableFuture<Void> append(String record, Durability durability) {
+        if (closed.get()) {
+            return CompletableFuture.failedFuture(new IOException("Log closed"));
+        }
+        var entry = new Entry((record + "\n").getBytes(StandardCharsets.UTF_8), durability, new CompletableFuture<>());
+        queue.add(entry);
+        // closed meanwhile: once the writer is gone nothing else would complete the entry
+        if (closed.get() && !writer.isAlive()) {
+            failQueued();
+        }
+        if (durability == Durability.ENQUEUE) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return entry.done;
+    }
+
+    /**
+     * Waits until every record queued so far is written, then runs the action while no record can be written,
+     * for readers or rewriters that need to see the whole file.
+     */
+    void runExclusive(Runnable action) {
+        barrier(Durability.WRITE).join();
+        fileLock.lock();
+        try {
+            action.run();
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file with the records kept by the compactor, without stopping the appends while it runs.
+     * The records written so far are streamed twice from separate reads of the file, once for the compaction to see them
+     * all and once to write the ones it keeps, then the records appended meanwhile are copied after them and the
+     * compacted file replaces the log while the writer is paused.
+     */
+    void compact(Compaction compaction) throws IOException {
+        long compactedLength;
+        fileLock.lock();
+        try {
+            // between two batches, so the length ends on a record
+            compactedLength = Files.size(path);
+        } finally {
+            fileLock.unlock();
+        }
+        var compactedPath = path.resolveSibling(path.getFileName() + ".compact");
+        forEachRecord(compactedLength, compaction::scan);
+        try (var output = Files.newBufferedWriter(compactedPath, StandardCharsets.UTF_8)) {
+            forEachRecord(compactedLength, record -> {
+                if (compaction.keep(record)) {
+                    try {
+                        output.write(record);
+                        output.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        runExclusive(() -> {
+            try {
+                try (var reader = FileChannel.open(path, StandardOpenOption.READ);
+                     var writer = FileChannel.open(compactedPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    var tailLength = reader.size() - compactedLength;
+                    var copied = 0L;
+                    while (copied < tailLength) {
+                        copied += reader.transferTo(compactedLength + copied, tailLength - copied, writer);
+                    }
+                }
+                Files.move(compactedPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                channel = openForAppend(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // the records in the first length bytes of the file, which end on a record
+    private void forEachRecord(long length, Consumer<String> action) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ);
+             var reader = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(new BoundedChannel(channel, length)), StandardCharsets.UTF_8))) {
+            String record;
+            while ((record = reader.readLine()) != null) {
+                action.accept(record);
+            }
+        }
+    }
+
+    // the first bytes of a file only, the records appended after them are copied as they are
+    private static class BoundedChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private final long length;
+
+        private BoundedChannel(FileChannel channel, long length) {
+            this.channel = channel;
+            this.length = length;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException {
+            var left = length - channel.position();
+            if (left <= 0) {
+                return -1;
+            }
+            if (target.remaining() <= left) {
+                return channel.read(target);
+            }
+            var read = channel.read(target.slice().limit((int) left));
+            if (read > 0) {
+                target.position(target.position() + read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Decides which records a compaction keeps, from two reads of the records in the order written.
+     */
+    interface Compaction {
+        // first read, every record
+        void scan(String record);
+
+        // second read, true to keep the record
+        boolean keep(String record);
+    }
+
+    /**
+     * Forces every record queued so far to disk and closes the file, records appended afterward fail.
+     */
+    @Override
+    public void close() throws IOException {
+        // the writer is gone after the first close, nothing would write another last entry
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        var last = new Entry(NO_BYTES, Durability.FSYNC, new CompletableFuture<>());
+        lastEntry = last;
+        queue.add(last);
+        try {
+            last.done.join();
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // queued by appends that passed the check of closed after the last batch of the writer
+            failQueued();
+            channel.close();
+        }
+    }
+
+    private void failQueued() {
+        var left = new ArrayList<Entry>();
+        queue.drainTo(left);
+        var closedError = new IOException("Log closed");
+        left.forEach(entry -> entry.done.completeExceptionally(closedError));
+    }
+
+    // an empty record, written once every record queued before it is
+    private CompletableFuture<Void> barrier(Durability durability) {
+        var entry = new Entry(NO_BYTES, durability, new CompletableFuture<>());
+        queue.add(entry);
+        return entry.done;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            var stop = false;
+            fileLock.lock();
+            try {
+                writeBatch();
+                for (var entry : batch) {
+                    stop |= entry == lastEntry;
+                }
+            } finally {
+                fileLock.unlock();
+                batch.clear();
+            }
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    private void writeBatch() {
+        var begin = System.nanoTime();
+        var force = false;
+        buffer.clear();
+        for (var entry : batch) {
+            if (buffer.remaining() < entry.bytes.length) {
+                buffer = grow(buffer, entry.bytes.length);
+            }
+            buffer.put(entry.bytes);
+            force |= entry.durability == Durability.FSYNC;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+            writeTimes.record(System.nanoTime() - begin);
+            for (var entry : batch) {
+                entry.done.complete(null);
+            }
+        } catch (IOException e) {
+            for (var entry : batch) {
+                entry.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static FileChannel openForAppend(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        var grown = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private record Entry(byte[] bytes, Durability durability, CompletableFuture<Void> done) {
+    }
+}
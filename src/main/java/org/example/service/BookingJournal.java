@@ -0,0 +1,71 @@
+package org.example.service;
+
+import lombok.Getter;
+
+/**
+ * Changes made to the bookings of each (location, treatment) pair, in the order they were made.
+ * Each pair has its own chain of immutable changes, appended by the owner of the pair's lock and read without any lock
+ * by {@link BucketView}s, which apply them to their own copy of the state. Writers never wait for the readers,
+ * and changes already read by every view are garbage collected.
+ */
+class BookingJournal {
+
+    // last change of each pair, indexed by BookingLocks.bucketOf, guarded by the pair's lock
+    private final Change[] tails;
+
+    BookingJournal(int bucketCount) {
+        this.tails = new Change[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            tails[i] = new Change(null, BookingStore.NONE, 0);
+        }
+    }
+
+    /**
+     * @return a view of the pair that sees every change appended from now on
+     */
+    BucketView newView(int bucket, BookingStore store, VerifiedStates verifiedStates) {
+        return new BucketView(tails[bucket], store, verifiedStates);
+    }
+
+    // bucket lock held
+    void booked(int bucket, long bookingId) {
+        append(bucket, new Change(ChangeType.BOOKED, bookingId, 0));
+    }
+
+    // bucket lock held
+    void paid(int bucket, long bookingId, int sum) {
+        append(bucket, new Change(ChangeType.PAID, bookingId, sum));
+    }
+
+    // bucket lock held
+    void cancelled(int bucket, long bookingId, int refund) {
+        append(bucket, new Change(ChangeType.CANCELLED, bookingId, refund));
+    }
+
+    private void append(int bucket, Change change) {
+        // the volatile write publishes the change to the readers
+        tails[bucket].next = change;
+        tails[bucket] = change;
+    }
+
+    enum ChangeType {
+        BOOKED,
+        PAID,
+        CANCELLED
+    }
+
+    @Getter
+    static final class Change {
+        private final ChangeType type;
+        private final long bookingId;
+        // paid, negative for cancellations, 0 for bookings
+        private final int sum;
+        volatile Change next;
+
+        Change(ChangeType type, long bookingId, int sum) {
+            this.type = type;
+            this.bookingId = bookingId;
+            this.sum = sum;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.service;
+
+import org.example.Config;
+import org.example.metrics.Metrics;
+import org.example.metrics.TimedLock;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks guarding the bookings of each (location, treatment) pair.
+ * In {@link ConcurrencyMode#GLOBAL} mode every pair shares the same lock.
+ * A caller holding several stripes at once, through {@link #forBuckets}, takes them in increasing stripe index,
+ * so two such callers can't deadlock each other or a caller holding a single stripe.
+ */
+class BookingLocks {
+
+    private final int numberOfTreatments;
+    private final Lock[] stripes;
+
+    BookingLocks(Config config, ConcurrencyMode mode, Metrics metrics) {
+        this.numberOfTreatments = config.getNumberOfTreatments();
+        var bucketCount = config.getNumberOfLocations() * config.getNumberOfTreatments();
+        if (mode == ConcurrencyMode.STRIPED) {
+            stripes = new Lock[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                stripes[i] = newLock(metrics);
+            }
+        } else {
+            stripes = new Lock[]{newLock(metrics)};
+        }
+    }
+
+    private static Lock newLock(Metrics metrics) {
+        return new TimedLock(new ReentrantLock(), metrics.newBookingLockWaits(), metrics.newBookingLockHolds());
+    }
+
+    int bucketOf(int location, int treatmentType) {
+        return location * numberOfTreatments + treatmentType;
+    }
+
+    Lock forBucket(int location, int treatmentType) {
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+        return stripes[bucketOf(location, treatmentType)];
+    }
+
+    /**
+     * @return the distinct locks of the buckets, in increasing stripe index, the order to lock them in
+     */
+    List<Lock> forBuckets(int[] buckets) {
+        if (stripes.length == 1) {
+            return List.of(stripes[0]);
+        }
+        var used = new BitSet(stripes.length);
+        for (var bucket : buckets) {
+            used.set(bucket);
+        }
+        var locks = new ArrayList<Lock>(used.cardinality());
+        for (int i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+            locks.add(stripes[i]);
+        }
+        return locks;
+    }
+}
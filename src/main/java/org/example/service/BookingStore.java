@@ -0,0 +1,73 @@
+package org.example.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Every booking made, by booking id. A booking's fields are written once by {@link #add}, before its state publishes
+ * them, so reading them takes no lock once the state was seen. State changes and payments are made under the
+ * booking's bucket lock.
+ */
+interface BookingStore extends Closeable {
+
+    byte NONE = 0;
+    byte BOOKED = 1;
+    byte PAID = 2;
+    byte CANCELLED = 3;
+
+    // bucket lock held, the booking id is new
+    void add(long bookingId, String name, String cnp, int location, int treatmentType, int minutesStart, int minutesEnd);
+
+    /**
+     * @return the current state of the booking, {@link #NONE} if it was never made
+     */
+    byte getState(long bookingId);
+
+    // bucket lock held, the booking exists
+    void setState(long bookingId, byte state);
+
+    /**
+     * Adds to the sum paid for the booking, negative for refunds.
+     */
+    // bucket lock held, the booking exists
+    void addPayment(long bookingId, int sum);
+
+    // the getters below need the booking to be made, seen through getState or the journal
+
+    int getPaidSum(long bookingId);
+
+    String getName(long bookingId);
+
+    String getCnp(long bookingId);
+
+    int getLocation(long bookingId);
+
+    int getTreatmentType(long bookingId);
+
+    int getMinutesStart(long bookingId);
+
+    int getMinutesEnd(long bookingId);
+
+    /**
+     * Forces the record of the booking, and the strings it refers to, to disk, for the changes made with
+     * {@link Durability#FSYNC}. Without it a store only survives the process, not the machine.
+     */
+    void force(long bookingId);
+
+    /**
+     * @return the highest booking id made, 0 if there is none
+     */
+    long getLastBookingId();
+
+    /**
+     * @param file    records of a {@link StoreMode#MAPPED} store, reopened if it exists
+     * @param strings names and cnps of a {@link StoreMode#MAPPED} store, reopened if it exists
+     */
+    static BookingStore create(StoreMode mode, Path file, Path strings) throws IOException {
+        return switch (mode) {
+            case HEAP -> new HeapBookingStore();
+            case MAPPED -> new MappedBookingStore(file, strings);
+        };
+    }
+}
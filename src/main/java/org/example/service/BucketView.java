@@ -0,0 +1,101 @@
+package org.example.service;
+
+import java.util.Arrays;
+
+/**
+ * The verification's copy of the bookings of one (location, treatment) pair, brought up to date from the
+ * {@link BookingJournal} without locking. Keeps the booking ids in the order booked and the state it has seen for each
+ * booking in {@link VerifiedStates}, cancelled ids are dropped once they are half of the list.
+ * Not thread safe, only one reader may use it at a time.
+ */
+class BucketView {
+
+    private BookingJournal.Change lastApplied;
+    private final BookingStore store;
+    private final VerifiedStates verifiedStates;
+    // booked ids in order, cancelled ones included until the next compaction
+    private long[] bookingIds = new long[16];
+    private int size;
+    private int bookingCount;
+    private int unpaidCount;
+
+    BucketView(BookingJournal.Change lastApplied, BookingStore store, VerifiedStates verifiedStates) {
+        this.lastApplied = lastApplied;
+        this.store = store;
+        this.verifiedStates = verifiedStates;
+    }
+
+    /**
+     * Applies the changes appended since the last call, recording their payments in the ledger.
+     *
+     * @return whether there was any change
+     */
+    boolean catchUp(PaymentLedger paymentLedger) {
+        var changed = false;
+        BookingJournal.Change change;
+        while ((change = lastApplied.next) != null) {
+            var bookingId = change.getBookingId();
+            switch (change.getType()) {
+                case BOOKED -> {
+                    if (size == bookingIds.length) {
+                        bookingIds = Arrays.copyOf(bookingIds, size * 2);
+                    }
+                    bookingIds[size++] = bookingId;
+                    bookingCount++;
+                    unpaidCount++;
+                    verifiedStates.set(bookingId, BookingStore.BOOKED);
+                }
+                case PAID -> {
+                    if (verifiedStates.get(bookingId) == BookingStore.BOOKED) {
+                        unpaidCount--;
+                    }
+                    verifiedStates.set(bookingId, BookingStore.PAID);
+                    paymentLedger.record(store.getLocation(bookingId), change.getSum());
+                }
+                case CANCELLED -> {
+                    if (verifiedStates.get(bookingId) == BookingStore.BOOKED) {
+                        unpaidCount--;
+                    }
+                    bookingCount--;
+                    verifiedStates.set(bookingId, BookingStore.CANCELLED);
+                    paymentLedger.record(store.getLocation(bookingId), change.getSum());
+                }
+            }
+            lastApplied = change;
+            changed = true;
+        }
+        if (bookingCount < size / 2) {
+            dropCancelled();
+        }
+        return changed;
+    }
+
+    int getBookingCount() {
+        return bookingCount;
+    }
+
+    int getUnpaidCount() {
+        return unpaidCount;
+    }
+
+    /**
+     * @return the number of ids to go through with {@link #getBookingId(int)}, cancelled ones included
+     */
+    int size() {
+        return size;
+    }
+
+    long getBookingId(int index) {
+        return bookingIds[index];
+    }
+
+    private void dropCancelled() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (verifiedStates.get(bookingIds[i]) != BookingStore.CANCELLED) {
+                bookingIds[kept++] = bookingIds[i];
+            }
+        }
+        size = kept;
+    }
+}
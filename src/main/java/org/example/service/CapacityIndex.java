@@ -0,0 +1,71 @@
+package org.example.service;
+
+import org.example.Config;
+
+import java.util.Arrays;
+
+/**
+ * Keeps, for every (location, treatment) pair, how many clients are admitted at each minute of the day.
+ * Admission only touches the minutes of the requested interval, so it does not depend on the number of bookings.
+ * Not thread safe, callers must hold the lock guarding the pair.
+ */
+class CapacityIndex implements AdmissionEngine {
+
+    static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final Config config;
+    private final int minutesPerBucket;
+    private final int[][][] occupancy;
+
+    CapacityIndex(Config config) {
+        this.config = config;
+        this.minutesPerBucket = minutesPerBucket(config);
+        this.occupancy = new int[config.getNumberOfLocations()][config.getNumberOfTreatments()][];
+    }
+
+    static int minutesPerBucket(Config config) {
+        var maxDuration = Arrays.stream(config.getTreatmentsDuration()).max(Integer::compare).orElse(0);
+        // intervals are inclusive at both ends, so the last minute of the day may need duration + 1 slots
+        return MINUTES_PER_DAY + maxDuration + 1;
+    }
+
+    @Override
+    public boolean tryAdmit(int location, int treatmentType, int minutesStart, int minutesEnd) {
+        if (minutesStart < 0 || minutesEnd >= minutesPerBucket || minutesStart > minutesEnd) {
+            return false;
+        }
+        var maxClients = config.getMaxClientsPerTreatment()[location][treatmentType];
+        var minutes = bucket(location, treatmentType);
+        for (int i = minutesStart; i <= minutesEnd; i++) {
+            if (minutes[i] + 1 > maxClients) {
+                return false;
+            }
+        }
+        for (int i = minutesStart; i <= minutesEnd; i++) {
+            minutes[i]++;
+        }
+        return true;
+    }
+
+    @Override
+    public void release(int location, int treatmentType, int minutesStart, int minutesEnd) {
+        var minutes = bucket(location, treatmentType);
+        for (int i = minutesStart; i <= minutesEnd; i++) {
+            minutes[i]--;
+        }
+    }
+
+    @Override
+    public boolean requiresLock() {
+        return true;
+    }
+
+    private int[] bucket(int location, int treatmentType) {
+        var minutes = occupancy[location][treatmentType];
+        if (minutes == null) {
+            minutes = new int[minutesPerBucket];
+            occupancy[location][treatmentType] = minutes;
+        }
+        return minutes;
+    }
+}
@@ -0,0 +1,8 @@
+package org.example.service;
+
+public enum ConcurrencyMode {
+    // one lock for every booking, the original behaviour
+    GLOBAL,
+    // one lock per (location, treatment) pair
+    STRIPED;
+}
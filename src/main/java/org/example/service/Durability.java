@@ -0,0 +1,10 @@
+package org.example.service;
+
+public enum Durability {
+    // acknowledged once queued for the log writer, lost if the process dies before it is written
+    ENQUEUE,
+    // acknowledged once written to the file, survives the process but not the machine
+    WRITE,
+    // acknowledged once the file was forced to disk
+    FSYNC;
+}
@@ -0,0 +1,140 @@
+package org.example.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Bookings kept on the heap as columns of primitive arrays indexed by booking id instead of one object per booking,
+ * with cnps and names kept once in a dictionary. The columns grow by chunks that never move.
+ */
+class HeapBookingStore implements BookingStore {
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final VarHandle STATES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final StringDictionary cnps = new StringDictionary();
+    private final StringDictionary names = new StringDictionary();
+    // replaced by a bigger copy when full, guarded by this for writes
+    private volatile Chunk[] chunks = new Chunk[64];
+    // highest booking id added, guarded by this for writes
+    private volatile long lastBookingId;
+
+    @Override
+    public void add(long bookingId, String name, String cnp, int location, int treatmentType, int minutesStart, int minutesEnd) {
+        var chunk = chunkForWrite(bookingId);
+        var index = (int) (bookingId & CHUNK_MASK);
+        chunk.names[index] = names.intern(name);
+        chunk.cnps[index] = cnps.intern(cnp);
+        chunk.locations[index] = location;
+        chunk.treatmentTypes[index] = treatmentType;
+        chunk.minutesStarts[index] = minutesStart;
+        chunk.minutesEnds[index] = minutesEnd;
+        STATES.setRelease(chunk.states, index, BOOKED);
+        synchronized (this) {
+            lastBookingId = Math.max(lastBookingId, bookingId);
+        }
+    }
+
+    @Override
+    public byte getState(long bookingId) {
+        var chunk = chunk(bookingId);
+        return chunk == null ? NONE : (byte) STATES.getAcquire(chunk.states, (int) (bookingId & CHUNK_MASK));
+    }
+
+    @Override
+    public void setState(long bookingId, byte state) {
+        STATES.setRelease(chunk(bookingId).states, (int) (bookingId & CHUNK_MASK), state);
+    }
+
+    @Override
+    public void addPayment(long bookingId, int sum) {
+        chunk(bookingId).paidSums[(int) (bookingId & CHUNK_MASK)] += sum;
+    }
+
+    @Override
+    public int getPaidSum(long bookingId) {
+        return chunk(bookingId).paidSums[(int) (bookingId & CHUNK_MASK)];
+    }
+
+    @Override
+    public String getName(long bookingId) {
+        return names.get(chunk(bookingId).names[(int) (bookingId & CHUNK_MASK)]);
+    }
+
+    @Override
+    public String getCnp(long bookingId) {
+        return cnps.get(chunk(bookingId).cnps[(int) (bookingId & CHUNK_MASK)]);
+    }
+
+    @Override
+    public int getLocation(long bookingId) {
+        return chunk(bookingId).locations[(int) (bookingId & CHUNK_MASK)];
+    }
+
+    @Override
+    public int getTreatmentType(long bookingId) {
+        return chunk(bookingId).treatmentTypes[(int) (bookingId & CHUNK_MASK)];
+    }
+
+    @Override
+    public int getMinutesStart(long bookingId) {
+        return chunk(bookingId).minutesStarts[(int) (bookingId & CHUNK_MASK)];
+    }
+
+    @Override
+    public int getMinutesEnd(long bookingId) {
+        return chunk(bookingId).minutesEnds[(int) (bookingId & CHUNK_MASK)];
+    }
+
+    // nothing survives the process anyway
+    @Override
+    public void force(long bookingId) {
+    }
+
+    @Override
+    public long getLastBookingId() {
+        return lastBookingId;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Chunk chunk(long bookingId) {
+        var current = chunks;
+        var chunkIndex = bookingId >>> CHUNK_BITS;
+        return chunkIndex < current.length ? current[(int) chunkIndex] : null;
+    }
+
+    private Chunk chunkForWrite(long bookingId) {
+        var chunk = chunk(bookingId);
+        return chunk != null ? chunk : addChunk((int) (bookingId >>> CHUNK_BITS));
+    }
+
+    private synchronized Chunk addChunk(int chunkIndex) {
+        var current = chunks;
+        if (chunkIndex >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, chunkIndex + 1));
+        }
+        if (current[chunkIndex] == null) {
+            current[chunkIndex] = new Chunk();
+        }
+        // the volatile write publishes the new chunk, also when the array stays the same
+        chunks = current;
+        return current[chunkIndex];
+    }
+
+    private static final class Chunk {
+        private final int[] names = new int[CHUNK_SIZE];
+        private final int[] cnps = new int[CHUNK_SIZE];
+        private final int[] locations = new int[CHUNK_SIZE];
+        private final int[] treatmentTypes = new int[CHUNK_SIZE];
+        private final int[] minutesStarts = new int[CHUNK_SIZE];
+        private final int[] minutesEnds = new int[CHUNK_SIZE];
+        private final int[] paidSums = new int[CHUNK_SIZE];
+        private final byte[] states = new byte[CHUNK_SIZE];
+    }
+}
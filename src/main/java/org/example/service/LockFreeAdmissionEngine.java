@@ -0,0 +1,71 @@
+package org.example.service;
+
+import org.example.Config;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Admission without locks: every minute of the interval is taken with a CAS that refuses to go over the capacity.
+ * If some minute is already full the minutes taken so far are given back and the request fails.
+ * A request that is rolling back can make a concurrent one fail even if it would have fit, never the other way around.
+ */
+class LockFreeAdmissionEngine implements AdmissionEngine {
+
+    private final Config config;
+    private final int minutesPerBucket;
+    private final AtomicIntegerArray[][] occupancy;
+
+    LockFreeAdmissionEngine(Config config) {
+        this.config = config;
+        this.minutesPerBucket = CapacityIndex.minutesPerBucket(config);
+        this.occupancy = new AtomicIntegerArray[config.getNumberOfLocations()][config.getNumberOfTreatments()];
+        for (int location = 0; location < config.getNumberOfLocations(); location++) {
+            for (int treatment = 0; treatment < config.getNumberOfTreatments(); treatment++) {
+                occupancy[location][treatment] = new AtomicIntegerArray(minutesPerBucket);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAdmit(int location, int treatmentType, int minutesStart, int minutesEnd) {
+        if (minutesStart < 0 || minutesEnd >= minutesPerBucket || minutesStart > minutesEnd) {
+            return false;
+        }
+        var maxClients = config.getMaxClientsPerTreatment()[location][treatmentType];
+        var minutes = occupancy[location][treatmentType];
+        for (int i = minutesStart; i <= minutesEnd; i++) {
+            if (!tryIncrement(minutes, i, maxClients)) {
+                for (int j = i - 1; j >= minutesStart; j--) {
+                    minutes.decrementAndGet(j);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void release(int location, int treatmentType, int minutesStart, int minutesEnd) {
+        var minutes = occupancy[location][treatmentType];
+        for (int i = minutesStart; i <= minutesEnd; i++) {
+            minutes.decrementAndGet(i);
+        }
+    }
+
+    @Override
+    public boolean requiresLock() {
+        return false;
+    }
+
+    private static boolean tryIncrement(AtomicIntegerArray minutes, int minute, int maxClients) {
+        while (true) {
+            var current = minutes.get(minute);
+            if (current + 1 > maxClients) {
+                return false;
+            }
+            if (minutes.compareAndSet(minute, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+}
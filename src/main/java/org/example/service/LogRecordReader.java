@@ -0,0 +1,220 @@
+package org.example.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads the ';' separated records of a log file one line at a time, straight from the bytes: fields are found by one
+ * scan of the line and numbers are parsed in place, only the fields asked for as strings are decoded.
+ * Lines starting with the tombstone prefix are reported by {@link #isTombstone()}, their fields start after it.
+ * Every record is written with its new line, so a last line without one was torn by a crash.
+ */
+class LogRecordReader implements Closeable {
+
+    private static final int MAX_FIELDS = 16;
+
+    private final InputStream input;
+    private final byte[] tombstonePrefix;
+    private byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    // file offset of the first byte of the buffer
+    private long bufferOffset;
+    // fields of the current line, ends are exclusive
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+    private int fieldCount;
+    private boolean tombstone;
+    private boolean terminated;
+    private long lineOffset;
+    private long lineNumber;
+    private long lineCount;
+
+    LogRecordReader(Path file, String tombstonePrefix) throws IOException {
+        this.input = Files.newInputStream(file);
+        this.tombstonePrefix = tombstonePrefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Moves to the next non empty line.
+     *
+     * @return false at the end of the file
+     */
+    boolean next() throws IOException {
+        while (true) {
+            var lineEnd = indexOfNewLine();
+            while (lineEnd < 0 && !endOfInput) {
+                fill();
+                lineEnd = indexOfNewLine();
+            }
+            if (lineEnd < 0) {
+                // the last line may have no new line
+                lineEnd = limit;
+                if (position == limit) {
+                    return false;
+                }
+            }
+            var lineStart = position;
+            position = Math.min(lineEnd + 1, limit);
+            terminated = lineEnd < limit;
+            lineOffset = bufferOffset + lineStart;
+            lineNumber++;
+            var contentEnd = lineEnd > lineStart && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd > lineStart) {
+                split(lineStart, contentEnd);
+                lineCount++;
+                return true;
+            }
+        }
+    }
+
+    boolean isTombstone() {
+        return tombstone;
+    }
+
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return false for a line cut before its new line
+     */
+    boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Looks past the current line, whose fields can't be read afterwards.
+     *
+     * @return true when only empty lines follow
+     */
+    boolean isLastLine() throws IOException {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] != '\n' && buffer[i] != '\r') {
+                    return false;
+                }
+            }
+            if (endOfInput) {
+                return true;
+            }
+            position = limit;
+            fill();
+        }
+    }
+
+    /**
+     * @return the file offset where the current line starts
+     */
+    long getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * @return the number of the current line in the file, counting from 1
+     */
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    String getString(int field) {
+        return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field], StandardCharsets.UTF_8);
+    }
+
+    int getInt(int field) {
+        return Math.toIntExact(parseLong(fieldStarts[field], fieldEnds[field]));
+    }
+
+    long getLong(int field) {
+        return parseLong(fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * @return the minutes since midnight of a "hour:minute" field
+     */
+    int getMinutes(int field) {
+        var start = fieldStarts[field];
+        var end = fieldEnds[field];
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == ':') {
+                return Math.toIntExact(parseLong(start, i) * 60 + parseLong(i + 1, end));
+            }
+        }
+        throw new IllegalArgumentException("Expected hour:minute at line " + lineNumber);
+    }
+
+    /**
+     * @return the lines read so far, empty ones excepted
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private void split(int start, int end) {
+        tombstone = end - start >= tombstonePrefix.length
+                && Arrays.equals(buffer, start, start + tombstonePrefix.length, tombstonePrefix, 0, tombstonePrefix.length);
+        if (tombstone) {
+            start += tombstonePrefix.length;
+        }
+        fieldCount = 0;
+        fieldStarts[0] = start;
+        for (int i = start; i < end && fieldCount < MAX_FIELDS - 1; i++) {
+            if (buffer[i] == ';') {
+                fieldEnds[fieldCount++] = i;
+                fieldStarts[fieldCount] = i + 1;
+            }
+        }
+        fieldEnds[fieldCount++] = end;
+    }
+
+    private long parseLong(int start, int end) {
+        var negative = start < end && buffer[start] == '-';
+        var value = 0L;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            var digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number at line " + lineNumber + ": " + new String(buffer, start, end - start, StandardCharsets.UTF_8));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private int indexOfNewLine() {
+        for (int i = position; i < limit; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // keeps the unread bytes, growing the buffer when one line fills it
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        } else if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        var read = input.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Bookings kept off the heap in a memory mapped file of fixed width records at offset booking id * record size,
+ * so a restarted server reopens them instead of rebuilding them. The file grows by mapped chunks that never move,
+ * names and cnps are numbered by a dictionary kept in its own file.
+ * A record whose state is still {@link #NONE} was never completely written and is ignored.
+ */
+class MappedBookingStore implements BookingStore {
+
+    private static final int RECORD_SIZE = 32;
+    private static final int NAME = 0;
+    private static final int CNP = 4;
+    private static final int LOCATION = 8;
+    private static final int TREATMENT_TYPE = 12;
+    private static final int MINUTES_START = 16;
+    private static final int MINUTES_END = 20;
+    private static final int STATE = 24;
+    private static final int PAID_SUM = 28;
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final long CHUNK_BYTES = (long) CHUNK_SIZE * RECORD_SIZE;
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final StringDictionary strings;
+    // replaced by a bigger copy when full, guarded by this for writes
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[64];
+    // highest booking id added, guarded by this for writes
+    private volatile long lastBookingId;
+
+    MappedBookingStore(Path file, Path stringsFile) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.strings = new StringDictionary(stringsFile);
+        var chunkCount = (int) ((channel.size() + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        for (int i = 0; i < chunkCount; i++) {
+            addChunk(i);
+        }
+        for (long bookingId = (long) chunkCount * CHUNK_SIZE - 1; bookingId > 0; bookingId--) {
+            if (getState(bookingId) != NONE) {
+                lastBookingId = bookingId;
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void add(long bookingId, String name, String cnp, int location, int treatmentType, int minutesStart, int minutesEnd) {
+        var chunk = chunkForWrite(bookingId);
+        var offset = offset(bookingId);
+        chunk.putInt(offset + NAME, strings.intern(name));
+        chunk.putInt(offset + CNP, strings.intern(cnp));
+        chunk.putInt(offset + LOCATION, location);
+        chunk.putInt(offset + TREATMENT_TYPE, treatmentType);
+        chunk.putInt(offset + MINUTES_START, minutesStart);
+        chunk.putInt(offset + MINUTES_END, minutesEnd);
+        chunk.putInt(offset + PAID_SUM, 0);
+        INTS.setRelease(chunk, offset + STATE, (int) BOOKED);
+        synchronized (this) {
+            lastBookingId = Math.max(lastBookingId, bookingId);
+        }
+    }
+
+    @Override
+    public byte getState(long bookingId) {
+        var chunk = chunk(bookingId);
+        return chunk == null ? NONE : (byte) (int) INTS.getAcquire(chunk, offset(bookingId) + STATE);
+    }
+
+    @Override
+    public void setState(long bookingId, byte state) {
+        INTS.setRelease(chunk(bookingId), offset(bookingId) + STATE, (int) state);
+    }
+
+    @Override
+    public void addPayment(long bookingId, int sum) {
+        var chunk = chunk(bookingId);
+        var offset = offset(bookingId) + PAID_SUM;
+        chunk.putInt(offset, chunk.getInt(offset) + sum);
+    }
+
+    @Override
+    public int getPaidSum(long bookingId) {
+        return getInt(bookingId, PAID_SUM);
+    }
+
+    @Override
+    public String getName(long bookingId) {
+        return strings.get(getInt(bookingId, NAME));
+    }
+
+    @Override
+    public String getCnp(long bookingId) {
+        return strings.get(getInt(bookingId, CNP));
+    }
+
+    @Override
+    public int getLocation(long bookingId) {
+        return getInt(bookingId, LOCATION);
+    }
+
+    @Override
+    public int getTreatmentType(long bookingId) {
+        return getInt(bookingId, TREATMENT_TYPE);
+    }
+
+    @Override
+    public int getMinutesStart(long bookingId) {
+        return getInt(bookingId, MINUTES_START);
+    }
+
+    @Override
+    public int getMinutesEnd(long bookingId) {
+        return getInt(bookingId, MINUTES_END);
+    }
+
+    // the strings first, so a record on disk never refers to a string that isn't
+    @Override
+    public void force(long bookingId) {
+        try {
+            strings.sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        chunk(bookingId).force(offset(bookingId), RECORD_SIZE);
+    }
+
+    @Override
+    public long getLastBookingId() {
+        return lastBookingId;
+    }
+
+    /**
+     * Writes the mapped records back to the file and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (var chunk : chunks) {
+            if (chunk != null) {
+                chunk.force();
+            }
+        }
+        channel.close();
+        strings.close();
+    }
+
+    private int getInt(long bookingId, int field) {
+        return chunk(bookingId).getInt(offset(bookingId) + field);
+    }
+
+    private static int offset(long bookingId) {
+        return (int) (bookingId & CHUNK_MASK) * RECORD_SIZE;
+    }
+
+    private MappedByteBuffer chunk(long bookingId) {
+        var current = chunks;
+        var chunkIndex = bookingId >>> CHUNK_BITS;
+        return chunkIndex < current.length ? current[(int) chunkIndex] : null;
+    }
+
+    private MappedByteBuffer chunkForWrite(long bookingId) {
+        var chunk = chunk(bookingId);
+        return chunk != null ? chunk : addChunk((int) (bookingId >>> CHUNK_BITS));
+    }
+
+    private synchronized MappedByteBuffer addChunk(int chunkIndex) {
+        var current = chunks;
+        if (chunkIndex >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, chunkIndex + 1));
+        }
+        if (current[chunkIndex] == null) {
+            try {
+                // mapping past the end grows the file, the new records read as zeros
+                current[chunkIndex] = channel.map(FileChannel.MapMode.READ_WRITE, chunkIndex * CHUNK_BYTES, CHUNK_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            current[chunkIndex].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        // the volatile write publishes the new chunk, also when the array stays the same
+        chunks = current;
+        return current[chunkIndex];
+    }
+}
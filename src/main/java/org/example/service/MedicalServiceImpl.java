@@ -1,12 +1,18 @@
 package org.example.service;
 
+import org.example.logging.AsyncLog;
+import org.example.logging.LogLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import org.example.Config;
+import org.example.Options;
+import org.example.metrics.Metrics;
+import org.example.metrics.TimedLock;
 import org.example.model.*;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -14,27 +20,109 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class MedicalServiceImpl {
+public class MedicalServiceImpl implements Closeable {
 
     private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter verifyFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
     private static final String PROGRAM_OUTPUT_FILENAME = "program_data.txt";
     private static final String PAYMENT_OUTPUT_FILENAME = "payment_data.txt";
     private static final String VERIFICATION_FILENAME = "verify_data.txt";
-
-    private List<Interval> intervals = new ArrayList<>();
+    private static final String STORE_FILENAME = "bookings.dat";
+    private static final String STORE_STRINGS_FILENAME = "booking_strings.dat";
+    // starts the program file records of cancelled bookings, followed by the record of the booking
+    private static final String TOMBSTONE_PREFIX = "-;";
+    // booking id of failed program requests, real ids start at 1
+    public static final long NO_BOOKING = 0;
+    // field of the booking id in the program and payment records, the last one
+    private static final int PROGRAM_BOOKING_ID = 7;
+    private static final int PAYMENT_BOOKING_ID = 6;
+    private static final int PROGRAM_FIELDS = PROGRAM_BOOKING_ID + 1;
+    private static final int PAYMENT_FIELDS = PAYMENT_BOOKING_ID + 1;
+
+    // changes of the bookings of each (location, treatment) pair, indexed by BookingLocks.bucketOf
+    private final BookingJournal journal;
+    // the verification's copy of each pair, caught up from the journal, guarded by verificationLock
+    private final BucketView[] bucketViews;
+    // report of each pair as of its last change, guarded by verificationLock
+    private final BucketReport[] bucketReports;
+    // every booking made, by booking id
+    private final BookingStore bookingStore;
+    // state of each booking as last seen by the bucket views, guarded by verificationLock
+    private final VerifiedStates verifiedStates = new VerifiedStates();
+    private final AtomicLong nextBookingId;
 
     private final Config config;
-    private final Lock programLock = new ReentrantLock();
-    private final Lock paymentLock = new ReentrantLock();
-    private final Lock verificationLock = new ReentrantLock();
+    private final AdmissionEngine admissionEngine;
+    private final BookingLocks bookingLocks;
+    private final Durability durability;
+    private final AppendLog programLog;
+    private final AppendLog paymentLog;
+    // payments seen by the bucket views, guarded by verificationLock
+    private final PaymentLedger paymentLedger;
+    // the program file is compacted in the background after this many cancellations
+    private final int compactAfterTombstones;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicInteger tombstonesSinceCompaction = new AtomicInteger();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "program-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Metrics metrics = new Metrics();
+    private final Lock verificationLock = new TimedLock(new ReentrantLock(),
+            metrics.getVerificationLockWaits(), metrics.getVerificationLockHolds());
+    // verifies the locations in parallel, null in sequential mode
+    private final ForkJoinPool verificationPool;
 
     public MedicalServiceImpl(Config config) throws IOException {
+        this(config, new Options());
+    }
+
+    public MedicalServiceImpl(Config config, Options options) throws IOException {
         this.config = config;
-        clearFiles();
+        this.admissionEngine = AdmissionEngine.create(config, options.getAdmissionMode());
+        this.bookingLocks = new BookingLocks(config, options.getConcurrencyMode(), metrics);
+        var bucketCount = config.getNumberOfLocations() * config.getNumberOfTreatments();
+        this.journal = new BookingJournal(bucketCount);
+        this.bucketViews = new BucketView[bucketCount];
+        this.bucketReports = new BucketReport[bucketCount];
+        this.bookingStore = BookingStore.create(options.getStoreMode(), Path.of(STORE_FILENAME), Path.of(STORE_STRINGS_FILENAME));
+        for (int i = 0; i < bucketCount; i++) {
+            bucketViews[i] = journal.newView(i, bookingStore, verifiedStates);
+        }
+        this.paymentLedger = new PaymentLedger(config.getNumberOfLocations());
+        this.durability = options.getDurability();
+        if (options.getCompactAfter() <= 0) {
+            throw new IllegalArgumentException("compactAfter must be positive, got " + options.getCompactAfter());
+        }
+        this.compactAfterTombstones = options.getCompactAfter();
+        this.verificationPool = options.getVerificationMode() == VerificationMode.PARALLEL
+                ? new ForkJoinPool(options.getVerificationThreads())
+                : null;
+        var lastBookingId = bookingStore.getLastBookingId();
+        if (lastBookingId != NO_BOOKING) {
+            restoreBookings(lastBookingId);
+        } else if (options.getStartupMode() == StartupMode.REPLAY) {
+            lastBookingId = replayLogs();
+        } else {
+            clearFiles();
+        }
+        this.nextBookingId = new AtomicLong(lastBookingId + 1);
+        this.programLog = new AppendLog(Path.of(PROGRAM_OUTPUT_FILENAME), metrics.logWrites(PROGRAM_OUTPUT_FILENAME));
+        this.paymentLog = new AppendLog(Path.of(PAYMENT_OUTPUT_FILENAME), metrics.logWrites(PAYMENT_OUTPUT_FILENAME));
     }
 
     private void clearFiles() throws IOException {
@@ -47,218 +135,553 @@ public class MedicalServiceImpl {
         }
     }
 
+    /**
+     * Takes back the bookings of a reopened store: admits the active ones again and journals them for the verification,
+     * whose next report covers every booking since the store was created. The files are kept and appended to.
+     */
+    private void restoreBookings(long lastBookingId) {
+        var begin = System.nanoTime();
+        var restored = 0;
+        for (long bookingId = 1; bookingId <= lastBookingId; bookingId++) {
+            var state = bookingStore.getState(bookingId);
+            if (state == BookingStore.CANCELLED) {
+                paymentLedger.record(bookingStore.getLocation(bookingId), bookingStore.getPaidSum(bookingId));
+            } else if (isActive(state)) {
+                restoreActiveBooking(bookingId);
+                restored++;
+            }
+        }
+        AsyncLog.log(LogLevel.INFO, String.format("Reopened %s active bookings in %s ms", restored, (System.nanoTime() - begin) / 1_000_000));
+    }
+
+    private void restoreActiveBooking(long bookingId) {
+        var location = bookingStore.getLocation(bookingId);
+        var treatmentType = bookingStore.getTreatmentType(bookingId);
+        if (!admissionEngine.tryAdmit(location, treatmentType, bookingStore.getMinutesStart(bookingId), bookingStore.getMinutesEnd(bookingId))) {
+            throw new IllegalStateException("Booking " + bookingId + " doesn't fit the configuration");
+        }
+        var bucket = bookingLocks.bucketOf(location, treatmentType);
+        journal.booked(bucket, bookingId);
+        if (bookingStore.getState(bookingId) == BookingStore.PAID) {
+            journal.paid(bucket, bookingId, bookingStore.getPaidSum(bookingId));
+        }
+    }
+
+    /**
+     * Takes back the bookings and payments of the files left by the previous run, which are kept and appended to.
+     * Every record names its booking id, so the bookings are restored under the ids their clients hold: the program
+     * file adds the bookings and its tombstones cancel them, then the payment file pays and refunds them.
+     *
+     * @return the highest booking id of the files, including the bookings compacted away, so no id is given twice
+     */
+    private long replayLogs() throws IOException {
+        var begin = System.nanoTime();
+        var programFile = Path.of(PROGRAM_OUTPUT_FILENAME);
+        var paymentFile = Path.of(PAYMENT_OUTPUT_FILENAME);
+        var program = replayFile(programFile, PROGRAM_FIELDS, reader -> {
+            var bookingId = reader.getLong(PROGRAM_BOOKING_ID);
+            if (reader.isTombstone()) {
+                if (isActive(bookingStore.getState(bookingId))) {
+                    bookingStore.setState(bookingId, BookingStore.CANCELLED);
+                }
+                return bookingId;
+            }
+            var name = reader.getString(0);
+            var cnp = reader.getString(1);
+            var location = reader.getInt(3);
+            var treatmentType = reader.getInt(4);
+            var minutesStart = reader.getMinutes(6);
+            Objects.checkIndex(location, config.getNumberOfLocations());
+            bookingStore.add(bookingId, name, cnp, location, treatmentType,
+                    minutesStart, minutesStart + config.getTreatmentsDuration()[treatmentType]);
+            return bookingId;
+        });
+
+        // every payment and refund, also of the bookings compacted away, reaches the ledger
+        var paymentTotals = new int[config.getNumberOfLocations()];
+        var paymentCounts = new int[config.getNumberOfLocations()];
+        var payment = replayFile(paymentFile, PAYMENT_FIELDS, reader -> {
+            var bookingId = reader.getLong(PAYMENT_BOOKING_ID);
+            var sum = reader.getInt(2);
+            var location = reader.getInt(3);
+            paymentTotals[location] += sum;
+            paymentCounts[location]++;
+            var state = bookingStore.getState(bookingId);
+            if (state != BookingStore.NONE) {
+                bookingStore.addPayment(bookingId, sum);
+                if (state == BookingStore.BOOKED && sum > 0) {
+                    bookingStore.setState(bookingId, BookingStore.PAID);
+                }
+            }
+            return bookingId;
+        });
+
+        var active = 0;
+        for (long bookingId = 1; bookingId <= bookingStore.getLastBookingId(); bookingId++) {
+            if (isActive(bookingStore.getState(bookingId))) {
+                restoreActiveBooking(bookingId);
+                // the journaled payments reach the ledger through the bucket views
+                paymentTotals[bookingStore.getLocation(bookingId)] -= bookingStore.getPaidSum(bookingId);
+                active++;
+            }
+        }
+        for (int location = 0; location < paymentTotals.length; location++) {
+            if (paymentCounts[location] > 0) {
+                paymentLedger.record(location, paymentTotals[location]);
+            }
+        }
+        var seconds = (System.nanoTime() - begin) / 1e9;
+        AsyncLog.log(LogLevel.INFO, String.format("Replayed %s program and %s payment lines into %s active bookings in %.0f ms, %,.0f lines/s",
+                program.records(), payment.records(), active, seconds * 1000, (program.records() + payment.records()) / seconds));
+        return Math.max(Math.max(program.lastBookingId(), payment.lastBookingId()), bookingStore.getLastBookingId());
+    }
+
+    /**
+     * Replays the records of a file in order. Appends write a record with its new line in one go, so a crash can only
+     * tear the last line: one that is cut, short or unparsable is truncated away with a warning, the appends going on
+     * from the end of the last whole record. Such a line anywhere else means the file is damaged.
+     *
+     * @return the replayed records and the highest booking id among them
+     */
+    private ReplayedFile replayFile(Path file, int fieldCount, RecordReplay replay) throws IOException {
+        if (!Files.exists(file)) {
+            return new ReplayedFile(0, NO_BOOKING);
+        }
+        long records = 0;
+        long lastBookingId = NO_BOOKING;
+        long tornLineOffset = -1;
+        try (var reader = new LogRecordReader(file, TOMBSTONE_PREFIX)) {
+            while (reader.next()) {
+                try {
+                    if (!reader.isTerminated() || reader.getFieldCount() != fieldCount) {
+                        throw new IllegalArgumentException("Expected " + fieldCount + " fields ending with a new line");
+                    }
+                    lastBookingId = Math.max(lastBookingId, replay.replay(reader));
+                    records++;
+                } catch (IllegalArgumentException | IndexOutOfBoundsException | ArithmeticException e) {
+                    var lineNumber = reader.getLineNumber();
+                    if (!reader.isLastLine()) {
+                        throw new IOException("Unreadable record at line " + lineNumber + " of " + file, e);
+                    }
+                    AsyncLog.log(LogLevel.WARN, "Truncating the torn last line " + lineNumber + " of " + file + ": " + e.getMessage());
+                    tornLineOffset = reader.getLineOffset();
+                }
+            }
+        }
+        if (tornLineOffset >= 0) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(tornLineOffset);
+            }
+        }
+        return new ReplayedFile(records, lastBookingId);
+    }
+
+    // applies one record, the field count checked, and returns its booking id
+    private interface RecordReplay {
+        long replay(LogRecordReader reader);
+    }
+
+    private record ReplayedFile(long records, long lastBookingId) {
+    }
+
+    /**
+     * @return the metrics of this service, shared with the server in front of it
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     public ProgramResponse processProgramRequest(ProgramRequest request) {
-        var maxClientsPerTreatment = config.getMaxClientsPerTreatment()[request.getLocation()][request.getTreatmentType()];
+        return processProgramRequest(request, durability);
+    }
+
+    /**
+     * @param durability how durable the booking has to be before answering
+     */
+    public ProgramResponse processProgramRequest(ProgramRequest request, Durability durability) {
+        if (!isValid(request)) {
+            return new ProgramResponse(ProgramStatus.FAIL, NO_BOOKING);
+        }
         var minutesStart = request.getTreatmentTime().getHour() * 60 + request.getTreatmentTime().getMinute();
         var duration = config.getTreatmentsDuration()[request.getTreatmentType()];
+        var bucketLock = bookingLocks.forBucket(request.getLocation(), request.getTreatmentType());
 
+        // a lock free engine rejects full slots without touching the booking locks
+        if (!admissionEngine.requiresLock() &&
+                !admissionEngine.tryAdmit(request.getLocation(), request.getTreatmentType(), minutesStart, minutesStart + duration)) {
+            return new ProgramResponse(ProgramStatus.FAIL, NO_BOOKING);
+        }
+        long bookingId;
+        CompletableFuture<Void> saved;
         try {
-            programLock.lock();
-            intervals.add(new Interval(request.getCnp(), request.getLocation(), request.getTreatmentType(), minutesStart, minutesStart + duration));
-            var maxOverlap = maximumOverlappingIntervals(getAllIntervalsWithLocationAndTreatmentType(intervals, request.getLocation(), request.getTreatmentType()));
-            if (maxOverlap > maxClientsPerTreatment) {
-                intervals.remove(intervals.size() - 1);
-                return new ProgramResponse(ProgramStatus.FAIL);
+            bucketLock.lock();
+            if (admissionEngine.requiresLock() &&
+                    !admissionEngine.tryAdmit(request.getLocation(), request.getTreatmentType(), minutesStart, minutesStart + duration)) {
+                return new ProgramResponse(ProgramStatus.FAIL, NO_BOOKING);
+            }
+            bookingId = nextBookingId.getAndIncrement();
+            try {
+                bookingStore.add(bookingId, request.getName(), request.getCnp(), request.getLocation(), request.getTreatmentType(),
+                        minutesStart, minutesStart + duration);
+                journal.booked(bookingLocks.bucketOf(request.getLocation(), request.getTreatmentType()), bookingId);
+                saved = saveProgramRecord(bookingId, durability);
+            } catch (RuntimeException e) {
+                abandonBooking(bookingId, request, minutesStart, minutesStart + duration);
+                throw e;
             }
-            saveProgramRequest(request);
-            return new ProgramResponse(ProgramStatus.SUCCESS);
         } finally {
-            programLock.unlock();
+            bucketLock.unlock();
         }
+        // waiting for the log doesn't need the lock, other bookings get into the same write meanwhile
+        forceStore(bookingId, durability);
+        awaitSaved(saved);
+        return new ProgramResponse(ProgramStatus.SUCCESS, bookingId);
     }
 
+    public List<ProgramResponse> processProgramRequests(List<ProgramRequest> requests) {
+        return processProgramRequests(requests, durability);
+    }
 
-    public Response processPayment(ProgramRequest lastProgramRequest) {
-        var sum = config.getTreatmentsCost()[lastProgramRequest.getTreatmentType()];
+    /**
+     * Books a batch of requests with one acquisition of the locks of their pairs and one write of their records.
+     * The requests are admitted in the order given, which is the order they got the slots of a pair in.
+     * A request naming no pair of the configuration fails alone, the others of the batch are still booked.
+     *
+     * @return the response of each request, in the same order
+     */
+    public List<ProgramResponse> processProgramRequests(List<ProgramRequest> requests, Durability durability) {
+        var count = requests.size();
+        var minutesStarts = new int[count];
+        var minutesEnds = new int[count];
+        var buckets = new int[count];
+        var valid = new boolean[count];
+        var admitted = new boolean[count];
+        var validCount = 0;
+        for (int i = 0; i < count; i++) {
+            var request = requests.get(i);
+            valid[i] = isValid(request);
+            if (!valid[i]) {
+                continue;
+            }
+            minutesStarts[i] = request.getTreatmentTime().getHour() * 60 + request.getTreatmentTime().getMinute();
+            minutesEnds[i] = minutesStarts[i] + config.getTreatmentsDuration()[request.getTreatmentType()];
+            buckets[validCount++] = bookingLocks.bucketOf(request.getLocation(), request.getTreatmentType());
+            if (!admissionEngine.requiresLock()) {
+                admitted[i] = admissionEngine.tryAdmit(request.getLocation(), request.getTreatmentType(), minutesStarts[i], minutesEnds[i]);
+            }
+        }
+        var bookingIds = new long[count];
+        var records = new StringBuilder();
+        var locks = bookingLocks.forBuckets(Arrays.copyOf(buckets, validCount));
+        locks.forEach(Lock::lock);
         try {
-            paymentLock.lock();
-            savePayment(new Payment(
-                            LocalDate.now(),
-                            lastProgramRequest.getCnp(),
-                            sum,
-                            lastProgramRequest.getLocation(),
-                            lastProgramRequest.getTreatmentType(),
-                            lastProgramRequest.getTreatmentTime()
-                    )
-            );
-            return new OkResponse();
+            for (int i = 0; i < count; i++) {
+                var request = requests.get(i);
+                if (!valid[i]) {
+                    continue;
+                }
+                if (admissionEngine.requiresLock()) {
+                    admitted[i] = admissionEngine.tryAdmit(request.getLocation(), request.getTreatmentType(), minutesStarts[i], minutesEnds[i]);
+                }
+                if (!admitted[i]) {
+                    continue;
+                }
+                var bookingId = nextBookingId.getAndIncrement();
+                String record;
+                try {
+                    bookingStore.add(bookingId, request.getName(), request.getCnp(), request.getLocation(), request.getTreatmentType(),
+                            minutesStarts[i], minutesEnds[i]);
+                    journal.booked(bookingLocks.bucketOf(request.getLocation(), request.getTreatmentType()), bookingId);
+                    record = formatProgramRecord(bookingId);
+                } catch (RuntimeException e) {
+                    // the other requests of the batch may still be booked
+                    AsyncLog.log(LogLevel.WARN, "Booking failed ", e);
+                    abandonBooking(bookingId, request, minutesStarts[i], minutesEnds[i]);
+                    continue;
+                }
+                if (!records.isEmpty()) {
+                    records.append('\n');
+                }
+                records.append(record);
+                bookingIds[i] = bookingId;
+            }
         } finally {
-            paymentLock.unlock();
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+        if (!records.isEmpty()) {
+            var saved = programLog.append(records.toString(), durability);
+            for (var bookingId : bookingIds) {
+                if (bookingId != NO_BOOKING) {
+                    forceStore(bookingId, durability);
+                }
+            }
+            awaitSaved(saved);
+        }
+        var responses = new ArrayList<ProgramResponse>(count);
+        for (var bookingId : bookingIds) {
+            responses.add(new ProgramResponse(bookingId == NO_BOOKING ? ProgramStatus.FAIL : ProgramStatus.SUCCESS, bookingId));
+        }
+        return responses;
+    }
+
+    /**
+     * Gives back the slot of a booking that failed after being admitted, the lock of its pair held. A booking already
+     * in the store is cancelled, so neither the verification nor a reopen counts it.
+     */
+    private void abandonBooking(long bookingId, ProgramRequest request, int minutesStart, int minutesEnd) {
+        if (bookingStore.getState(bookingId) != BookingStore.NONE) {
+            bookingStore.setState(bookingId, BookingStore.CANCELLED);
         }
+        admissionEngine.release(request.getLocation(), request.getTreatmentType(), minutesStart, minutesEnd);
+    }
+
+    // a request of another configuration, or a malformed one, would index past the pairs
+    private boolean isValid(ProgramRequest request) {
+        var time = request.getTreatmentTime();
+        return isRecordField(request.getName()) && isRecordField(request.getCnp()) && time != null
+                && request.getLocation() >= 0 && request.getLocation() < config.getNumberOfLocations()
+                && request.getTreatmentType() >= 0 && request.getTreatmentType() < config.getNumberOfTreatments()
+                && time.getHour() >= 0 && time.getHour() < 24 && time.getMinute() >= 0 && time.getMinute() < 60;
     }
 
-    public Response cancelPayment(ProgramRequest lastProgramRequest) {
+    // a separator or a line break would split the records of the logs
+    private static boolean isRecordField(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c == ';' || Character.isISOControl(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Response processPayment(long bookingId) {
+        return processPayment(bookingId, durability);
+    }
+
+    public Response processPayment(long bookingId, Durability durability) {
+        // a paid booking can't be paid again
+        if (bookingStore.getState(bookingId) != BookingStore.BOOKED) {
+            return new ProgramResponse(ProgramStatus.FAIL, bookingId);
+        }
+        var location = bookingStore.getLocation(bookingId);
+        var treatmentType = bookingStore.getTreatmentType(bookingId);
+        var sum = config.getTreatmentsCost()[treatmentType];
+        var bucketLock = bookingLocks.forBucket(location, treatmentType);
+        CompletableFuture<Void> saved;
         try {
-            programLock.lock();
-            paymentLock.lock();
-            int indexToDelete = -1;
-            for (int i = 0; i < intervals.size(); i++) {
-                var interval = intervals.get(i);
-                if (interval.getTreatmentType() == lastProgramRequest.getTreatmentType() &&
-                        interval.getCnp().equals(lastProgramRequest.getCnp()) &&
-                        interval.getLocation() == lastProgramRequest.getLocation() &&
-                        lastProgramRequest.getTreatmentTime().equals(getHourFromMinutes(interval.getMinutesStart()))) {
-                    indexToDelete = i;
-                    break;
-                }
+            bucketLock.lock();
+            // cancelled or paid while waiting for the lock
+            if (bookingStore.getState(bookingId) != BookingStore.BOOKED) {
+                return new ProgramResponse(ProgramStatus.FAIL, bookingId);
             }
-            intervals.remove(indexToDelete);
-
-            deleteProgramFromFile(lastProgramRequest);
-            var sum = config.getTreatmentsCost()[lastProgramRequest.getTreatmentType()];
-            savePayment(new Payment(
-                            LocalDate.now(),
-                            lastProgramRequest.getCnp(),
-                            (-1) * sum,
-                            lastProgramRequest.getLocation(),
-                            lastProgramRequest.getTreatmentType(),
-                            lastProgramRequest.getTreatmentTime()
-                    )
-            );
+            bookingStore.setState(bookingId, BookingStore.PAID);
+            bookingStore.addPayment(bookingId, sum);
+            journal.paid(bookingLocks.bucketOf(location, treatmentType), bookingId, sum);
+            saved = savePayment(bookingId, sum, durability);
         } finally {
-            paymentLock.unlock();
-            programLock.unlock();
+            bucketLock.unlock();
         }
+        forceStore(bookingId, durability);
+        awaitSaved(saved);
+        return new OkResponse();
+    }
 
+    public Response cancelPayment(long bookingId) {
+        return cancelPayment(bookingId, durability);
+    }
+
+    public Response cancelPayment(long bookingId, Durability durability) {
+        if (!isActive(bookingStore.getState(bookingId))) {
+            return new ProgramResponse(ProgramStatus.FAIL, bookingId);
+        }
+        var location = bookingStore.getLocation(bookingId);
+        var treatmentType = bookingStore.getTreatmentType(bookingId);
+        var bucketLock = bookingLocks.forBucket(location, treatmentType);
+        CompletableFuture<Void> cancelled;
+        CompletableFuture<Void> saved;
+        try {
+            bucketLock.lock();
+            // cancelled by someone else while waiting for the lock
+            if (!isActive(bookingStore.getState(bookingId))) {
+                return new ProgramResponse(ProgramStatus.FAIL, bookingId);
+            }
+            bookingStore.setState(bookingId, BookingStore.CANCELLED);
+            admissionEngine.release(location, treatmentType, bookingStore.getMinutesStart(bookingId), bookingStore.getMinutesEnd(bookingId));
+
+            cancelled = saveCancellation(bookingId, durability);
+            var refund = (-1) * config.getTreatmentsCost()[treatmentType];
+            bookingStore.addPayment(bookingId, refund);
+            journal.cancelled(bookingLocks.bucketOf(location, treatmentType), bookingId, refund);
+            saved = savePayment(bookingId, refund, durability);
+        } finally {
+            bucketLock.unlock();
+        }
+        if (tombstonesSinceCompaction.incrementAndGet() == compactAfterTombstones) {
+            compactor.execute(this::compactProgramFile);
+        }
+        forceStore(bookingId, durability);
+        awaitSaved(CompletableFuture.allOf(cancelled, saved));
         return new OkResponse();
     }
 
+    private static boolean isActive(byte bookingState) {
+        return bookingState == BookingStore.BOOKED || bookingState == BookingStore.PAID;
+    }
+
+    /**
+     * Checks and reports the bookings and payments without stopping the requests: the verification catches up its own
+     * copy of each pair from the journal, so each pair is seen as it was after one of its changes.
+     * Only the pairs changed since the previous verification are checked and reported again.
+     */
     public void verify() {
-        System.out.println("VERIFYING.....");
-        programLock.lock();
-        paymentLock.lock();
-        List<Interval> programIntervals = new ArrayList<>(intervals.size());
-        programIntervals.addAll(Collections.nCopies(intervals.size(), null));
-        Collections.copy(programIntervals, intervals);
-        var payments = getAllPayments();
-        paymentLock.unlock();
-        programLock.unlock();
-        // Compute total price for each location
-        var locationPrices = new HashMap<Integer, Integer>();
-        for (var payment : payments) {
-            locationPrices.merge(payment.getLocation(), payment.getSum(), Integer::sum);
-        }
-
-        // Compute unpaid program requests;
-        var unpaidLocations = new HashMap<Integer, ArrayList<Interval>>();
-        var intervalsForLocation = new HashMap<Integer, ArrayList<Interval>>();
-        for (var interval : programIntervals) {
-            var paymentOpt = payments.stream()
-                    .filter(payment -> payment.getCnp().equals(interval.getCnp()) &&
-                            payment.getLocation() == interval.getLocation() &&
-                            payment.getTreatmentType() == interval.getTreatmentType() &&
-                            payment.getTreatmentTime().equals(getHourFromMinutes(interval.getMinutesStart()))
-                    )
-                    .findAny();
-            if (intervalsForLocation.get(interval.getLocation()) == null) {
-                var newElem = new ArrayList<Interval>();
-                newElem.add(interval);
-                intervalsForLocation.put(interval.getLocation(), newElem);
+        AsyncLog.log(LogLevel.INFO, "VERIFYING.....");
+        verificationLock.lock();
+        var begin = System.nanoTime();
+        try {
+            List<LocationReport> locationReports;
+            if (verificationPool != null) {
+                locationReports = verificationPool.invoke(new LocationsTask(0, config.getNumberOfLocations()));
             } else {
-                intervalsForLocation.get(interval.getLocation()).add(interval);
-            }
-            if (paymentOpt.isEmpty()) {
-                if (unpaidLocations.get(interval.getLocation()) == null) {
-                    var newElem = new ArrayList<Interval>();
-                    newElem.add(interval);
-                    unpaidLocations.put(interval.getLocation(), newElem);
-                } else {
-                    unpaidLocations.get(interval.getLocation()).add(interval);
+                locationReports = new ArrayList<>();
+                for (int location = 0; location < config.getNumberOfLocations(); location++) {
+                    locationReports.add(verifyLocation(location));
                 }
             }
+            writeVerificationToFile(locationReports);
+        } finally {
+            metrics.getVerificationDurations().record(System.nanoTime() - begin);
+            verificationLock.unlock();
         }
-        verifyCorrectData(locationPrices, unpaidLocations, intervalsForLocation);
-        writeVerificationToFile(locationPrices, unpaidLocations, intervalsForLocation);
     }
 
-    private void verifyCorrectData(
-            HashMap<Integer, Integer> locationPrices,
-            HashMap<Integer, ArrayList<Interval>> unpaidLocations,
-            HashMap<Integer, ArrayList<Interval>> intervalsForLocation) {
+    /**
+     * Checks and reports one location, using only the pairs and payment totals of that location
+     * so different locations can be verified at the same time.
+     */
+    // verificationLock held
+    private LocationReport verifyLocation(int location) {
+        for (int treatmentType = 0; treatmentType < config.getNumberOfTreatments(); treatmentType++) {
+            var bucket = bookingLocks.bucketOf(location, treatmentType);
+            if (bucketViews[bucket].catchUp(paymentLedger) || bucketReports[bucket] == null) {
+                bucketReports[bucket] = reportBucket(bucketViews[bucket]);
+            }
+        }
+        var locationPrice = paymentLedger.getTotal(location);
+        verifyCorrectData(location, locationPrice);
+        return new LocationReport(bookingCount(location), locationReportText(location, locationPrice));
+    }
 
-        for (int i = 0; i < config.getNumberOfLocations(); i++) {
-            if (intervalsForLocation.get(i) == null) {
-                assert (locationPrices.get(i) == null);
-                assert (unpaidLocations.get(i) == null);
+    // verificationLock held
+    private BucketReport reportBucket(BucketView view) {
+        if (view.getBookingCount() == 0) {
+            return BucketReport.EMPTY;
+        }
+        var starts = new int[view.getBookingCount()];
+        var ends = new int[view.getBookingCount()];
+        var unpaid = new StringBuilder();
+        int treatmentType = 0;
+        int booked = 0;
+        for (int i = 0; i < view.size(); i++) {
+            var bookingId = view.getBookingId(i);
+            var state = verifiedStates.get(bookingId);
+            if (state == BookingStore.CANCELLED) {
                 continue;
             }
-            int sum = 0;
-            if (intervalsForLocation.get(i) != null) {
-                sum = intervalsForLocation.get(i)
-                        .stream()
-                        .map(interval -> config.getTreatmentsCost()[interval.getTreatmentType()])
-                        .reduce(0, Integer::sum);
+            treatmentType = bookingStore.getTreatmentType(bookingId);
+            var minutesStart = bookingStore.getMinutesStart(bookingId);
+            starts[booked] = minutesStart;
+            ends[booked] = bookingStore.getMinutesEnd(bookingId);
+            booked++;
+            // unpaid bookings are kept up to date by the payments, no need to match them with the payments here
+            if (state == BookingStore.BOOKED) {
+                unpaid.append(String.format("[cnp: %s; location: %s; treatment: %s; time: %s:%s], ",
+                        bookingStore.getCnp(bookingId),
+                        bookingStore.getLocation(bookingId),
+                        treatmentType,
+                        minutesStart / 60,
+                        minutesStart % 60
+                ));
             }
-            int unpaid = 0;
-            if (unpaidLocations.get(i) != null) {
-                unpaid = unpaidLocations.get(i)
-                        .stream()
-                        .map(interval -> config.getTreatmentsCost()[interval.getTreatmentType()])
-                        .reduce(0, Integer::sum);
-            }
-            assert sum == 0 || (locationPrices.get(i) == (sum - unpaid));
         }
+        var cost = config.getTreatmentsCost()[treatmentType];
+
+        var treatment = new StringBuilder();
+        var overlaps = new OverlapSweep(starts, ends, booked);
+        treatment.append(String.format("Treatment type: %s ; Max admitted: %s ; ", treatmentType, overlaps.getMaximum()));
+        for (var timeInterval : getAllTimeIntervals(overlaps)) {
+            treatment.append(String.format("[Interval: %s:%s - %s:%s ; Admitted: %s], ",
+                    timeInterval.getStart().getHour(),
+                    timeInterval.getStart().getMinute(),
+                    timeInterval.getEnd().getHour(),
+                    timeInterval.getEnd().getMinute(),
+                    timeInterval.getAdmitted()
+            ));
+        }
+        return new BucketReport(booked, booked * cost, view.getUnpaidCount() * cost, unpaid.toString(), treatment.toString());
     }
 
-    private void writeVerificationToFile(Map<Integer, Integer> locationPrice,
-                                         Map<Integer, ArrayList<Interval>> unpaidLocations,
-                                         Map<Integer, ArrayList<Interval>> intervalsForLocation) {
-        verificationLock.lock();
+    // verificationLock held
+    private void verifyCorrectData(int location, Integer locationPrice) {
+        int sum = 0;
+        int unpaid = 0;
+        for (int treatmentType = 0; treatmentType < config.getNumberOfTreatments(); treatmentType++) {
+            var report = bucketReports[bookingLocks.bucketOf(location, treatmentType)];
+            sum += report.getBookedSum();
+            unpaid += report.getUnpaidSum();
+        }
+        if (bookingCount(location) == 0) {
+            assert (locationPrice == null);
+            return;
+        }
+        assert sum == 0 || (locationPrice == (sum - unpaid));
+    }
+
+    private int bookingCount(int location) {
+        int bookingCount = 0;
+        for (int treatmentType = 0; treatmentType < config.getNumberOfTreatments(); treatmentType++) {
+            bookingCount += bucketReports[bookingLocks.bucketOf(location, treatmentType)].getBookingCount();
+        }
+        return bookingCount;
+    }
+
+    private String locationReportText(int location, Integer locationPrice) {
+        var report = new StringBuilder();
+        report.append(String.format("Location: %s ; Total Sold: %s\n", location, locationPrice == null ? 0 : locationPrice));
+        var unpaidList = new StringBuilder();
+        for (int treatmentType = 0; treatmentType < config.getNumberOfTreatments(); treatmentType++) {
+            unpaidList.append(bucketReports[bookingLocks.bucketOf(location, treatmentType)].getUnpaidList());
+        }
+        if (unpaidList.isEmpty()) {
+            report.append("No unpaid programming\n");
+        } else {
+            report.append("Unpaid programming list: ").append(unpaidList).append("\n");
+        }
+        report.append("\n");
+        for (int programmingType = 0; programmingType < config.getNumberOfTreatments(); programmingType++) {
+            report.append(bucketReports[bookingLocks.bucketOf(location, programmingType)].getTreatmentSection());
+        }
+        report.append("\n");
+        return report.toString();
+    }
+
+    private void writeVerificationToFile(List<LocationReport> locationReports) {
+        if (locationReports.stream().allMatch(report -> report.getBookingCount() == 0)) {
+            return;
+        }
         try (var writer = new BufferedWriter(new FileWriter(VERIFICATION_FILENAME, true))) {
-            if (intervalsForLocation.isEmpty()) {
-                return;
-            }
             writer.write(String.format("%s\n", LocalDateTime.now().format(verifyFormat)));
-            for (int location = 0; location < config.getNumberOfLocations(); location++) {
-                writer.write(String.format("Location: %s ; Total Sold: %s\n", location, locationPrice.getOrDefault(location, 0)));
-                var currentUnpaidLocations = unpaidLocations.get(location);
-                if (currentUnpaidLocations == null || currentUnpaidLocations.isEmpty()) {
-                    writer.write("No unpaid programming\n");
-                } else {
-                    writer.write("Unpaid programming list: ");
-                    for (var unpaidLocation : currentUnpaidLocations) {
-                        var hour = getHourFromMinutes(unpaidLocation.getMinutesStart());
-                        writer.write(String.format("[cnp: %s; location: %s; treatment: %s; time: %s:%s], ",
-                                        unpaidLocation.getCnp(),
-                                        unpaidLocation.getLocation(),
-                                        unpaidLocation.getTreatmentType(),
-                                        hour.getHour(),
-                                        hour.getMinute()
-                                )
-                        );
-                    }
-                    writer.write("\n");
-                }
-                writer.write("\n");
-                for (int programmingType = 0; programmingType < config.getNumberOfTreatments(); programmingType++) {
-                    if (intervalsForLocation.get(location) == null) {
-                        continue;
-                    }
-                    var intervalsToCheck = getAllIntervalsWithLocationAndTreatmentType(intervalsForLocation.get(location), location, programmingType);
-                    if (intervalsToCheck.isEmpty()) {
-                        continue;
-                    }
-                    var maximumAdmitted = maximumOverlappingIntervals(intervalsToCheck);
-                    writer.write(String.format("Treatment type: %s ; Max admitted: %s ; ", programmingType, maximumAdmitted));
-                    var timeIntervals = getAllTimeIntervals(intervalsToCheck);
-                    for (var timeInterval : timeIntervals) {
-                        writer.write(String.format("[Interval: %s:%s - %s:%s ; Admitted: %s], ",
-                                        timeInterval.getStart().getHour(),
-                                        timeInterval.getStart().getMinute(),
-                                        timeInterval.getEnd().getHour(),
-                                        timeInterval.getEnd().getMinute(),
-                                        timeInterval.getAdmitted()
-                                )
-                        );
-                    }
-                }
-                writer.write("\n");
+            for (var locationReport : locationReports) {
+                writer.write(locationReport.getText());
             }
             writer.flush();
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            verificationLock.unlock();
+            AsyncLog.log(LogLevel.ERROR, "Writing the verification failed ", e);
         }
     }
 
@@ -268,174 +691,130 @@ public class MedicalServiceImpl {
         return new Hour(hour, minutes);
     }
 
-    private List<Interval> getAllIntervalsWithLocationAndTreatmentType(List<Interval> intervalsToFilter,
-                                                                       int location, int treatmentType) {
-        return intervalsToFilter
-                .stream()
-                .filter(i -> (i.getLocation() == location && i.getTreatmentType() == treatmentType))
-                .toList();
+    private CompletableFuture<Void> saveProgramRecord(long bookingId, Durability durability) {
+        return programLog.append(formatProgramRecord(bookingId), durability);
+    }
+
+    // the booking itself is removed from the file by the next compaction
+    private CompletableFuture<Void> saveCancellation(long bookingId, Durability durability) {
+        return programLog.append(TOMBSTONE_PREFIX + formatProgramRecord(bookingId), durability);
     }
 
-    private void deleteProgramFromFile(ProgramRequest request) {
+    private String formatProgramRecord(long bookingId) {
+        var minutesStart = bookingStore.getMinutesStart(bookingId);
+        return String.format("%s;%s;%s;%s;%s;%s;%s:%s;%s",
+                bookingStore.getName(bookingId),
+                bookingStore.getCnp(bookingId),
+                LocalDate.now().format(dateFormat),
+                bookingStore.getLocation(bookingId),
+                bookingStore.getTreatmentType(bookingId),
+                LocalDate.now().format(dateFormat),
+                minutesStart / 60,
+                minutesStart % 60,
+                bookingId
+        );
+    }
+
+    private void compactProgramFile() {
+        tombstonesSinceCompaction.set(0);
         try {
-            // input the (modified) file content to the StringBuffer "input"
-            BufferedReader file = new BufferedReader(new FileReader(PROGRAM_OUTPUT_FILENAME));
-            StringBuilder inputBuffer = new StringBuilder();
-            String line;
+            programLog.compact(new ProgramCompaction());
+        } catch (IOException | UncheckedIOException e) {
+            AsyncLog.log(LogLevel.ERROR, "Compacting the program file failed ", e);
+        }
+    }
 
-            while ((line = file.readLine()) != null) {
-                if (getRequestFromLine(line).equals(request)) {
-                    continue;
-                }
-                inputBuffer.append(line);
-                inputBuffer.append('\n');
+    /**
+     * Drops the tombstones of the program file and the records of the bookings they name.
+     * Only the ids of the cancelled bookings are held, the file holds the tombstones since the previous compaction.
+     */
+    private static class ProgramCompaction implements AppendLog.Compaction {
+        private final Set<Long> cancelled = new HashSet<>();
+
+        @Override
+        public void scan(String record) {
+            if (record.startsWith(TOMBSTONE_PREFIX)) {
+                cancelled.add(bookingIdOf(record));
             }
-            file.close();
-
-            // write the new string with the replaced line OVER the same file
-            FileOutputStream fileOut = new FileOutputStream(PROGRAM_OUTPUT_FILENAME);
-            fileOut.write(inputBuffer.toString().getBytes());
-            fileOut.flush();
-            fileOut.close();
-
-        } catch (Exception e) {
-            System.out.println("Problem reading file.");
-        }
-    }
-
-    private void saveProgramRequest(ProgramRequest request) {
-        try (var writer = new BufferedWriter(new FileWriter(PROGRAM_OUTPUT_FILENAME, true))) {
-            writer.write(String.format("%s;%s;%s;%s;%s;%s;%s:%s\n",
-                    request.getName(),
-                    request.getCnp(),
-                    LocalDate.now().format(dateFormat),
-                    request.getLocation(),
-                    request.getTreatmentType(),
-                    LocalDate.now().format(dateFormat),
-                    request.getTreatmentTime().getHour(),
-                    request.getTreatmentTime().getMinute()
-            ));
-            writer.flush();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        }
+
+        @Override
+        public boolean keep(String record) {
+            return !record.startsWith(TOMBSTONE_PREFIX) && !cancelled.contains(bookingIdOf(record));
         }
     }
 
-    private ProgramRequest getRequestFromLine(String line) {
-        var parts = line.split(";");
-        var name = parts[0];
-        var cnp = parts[1];
-        var location = Integer.parseInt(parts[3]);
-        var treatmentType = Integer.parseInt(parts[4]);
-        var hourParts = parts[6].split(":");
-        var hour = Integer.parseInt(hourParts[0]);
-        var minutes = Integer.parseInt(hourParts[1]);
-        return new ProgramRequest(name, cnp, location, treatmentType, new Hour(hour, minutes));
+    // the booking id ends every record
+    private static long bookingIdOf(String record) {
+        return Long.parseLong(record.substring(record.lastIndexOf(';') + 1));
     }
 
-    private List<Payment> getAllPayments() {
-        try (var reader = new BufferedReader(new FileReader(PAYMENT_OUTPUT_FILENAME))) {
-            List<Payment> payments = new ArrayList<>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                payments.add(getPaymentFromLine(line));
-            }
-            return payments;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private Payment getPaymentFromLine(String line) {
-        var parts = line.split(";");
-        var cnp = parts[1];
-        var sum = Integer.parseInt(parts[2]);
-        var location = Integer.parseInt(parts[3]);
-        var treatmentType = Integer.parseInt(parts[4]);
-        var hourParts = parts[5].split(":");
-        var hour = Integer.parseInt(hourParts[0]);
-        var minutes = Integer.parseInt(hourParts[1]);
-        return new Payment(null, cnp, sum, location, treatmentType, new Hour(hour, minutes));
-    }
-
-    private void savePayment(Payment payment) {
-        try (var writer = new BufferedWriter(new FileWriter(PAYMENT_OUTPUT_FILENAME, true))) {
-            writer.write(String.format("%s;%s;%s;%s;%s;%s:%s\n",
-                    payment.getDate().format(dateFormat),
-                    payment.getCnp(),
-                    payment.getSum(),
-                    payment.getLocation(),
-                    payment.getTreatmentType(),
-                    payment.getTreatmentTime().getHour(),
-                    payment.getTreatmentTime().getMinute()
-            ));
-            writer.flush();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    private CompletableFuture<Void> savePayment(long bookingId, int sum, Durability durability) {
+        var minutesStart = bookingStore.getMinutesStart(bookingId);
+        return paymentLog.append(String.format("%s;%s;%s;%s;%s;%s:%s;%s",
+                LocalDate.now().format(dateFormat),
+                bookingStore.getCnp(bookingId),
+                sum,
+                bookingStore.getLocation(bookingId),
+                bookingStore.getTreatmentType(bookingId),
+                minutesStart / 60,
+                minutesStart % 60,
+                bookingId
+        ), durability);
     }
 
-    private List<TimeInterval> getAllTimeIntervals(List<Interval> intervals) {
-        var count = getIntervalOverlapArray(intervals);
-        var timeIntervals = new ArrayList<TimeInterval>();
-        for (int i = 0; i < count.length; i++) {
-            if (count[i] != 0) {
-                var start = i;
-                while (i < count.length && count[start] == count[i]) {
-                    i++;
-                }
-                var end = i - 1;
-                timeIntervals.add(new TimeInterval(getHourFromMinutes(start), getHourFromMinutes(end), count[start]));
-            }
+    // the store is as durable as the log records of the change
+    private void forceStore(long bookingId, Durability durability) {
+        if (durability == Durability.FSYNC) {
+            bookingStore.force(bookingId);
         }
-        return timeIntervals;
     }
 
-    private int[] getIntervalOverlapArray(List<Interval> intervals) {
-        // Find the time when the last interval ends
-        var endTime = intervals
-                .stream()
-                .map(Interval::getMinutesEnd)
-                .toList();
-        var startTime = intervals
-                .stream()
-                .map(Interval::getMinutesStart)
-                .toList();
-        int maxEndTime = endTime.stream().max(Comparator.naturalOrder()).get();
-
-        int[] count = new int[maxEndTime + 2];
-
-        // Fill the count array range count using the array index to store time
-        for (int i = 0; i < endTime.size(); i++) {
-            for (int j = startTime.get(i); j <= endTime.get(i); j++) {
-                count[j]++;
-            }
+    private static void awaitSaved(CompletableFuture<Void> saved) {
+        try {
+            saved.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
         }
-        return count;
     }
 
-    private Integer maximumOverlappingIntervals(List<Interval> intervals) {
-        int max_event_tm = 0;
-        var count = getIntervalOverlapArray(intervals);
-        for (int i = 0; i < count.length; i++) {
-            if (count[max_event_tm] < count[i]) {
-                max_event_tm = i;
-            }
+    /**
+     * Writes the records still queued and closes the log files.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
         }
-
-        return count[max_event_tm];
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (verificationPool != null) {
+            verificationPool.shutdown();
+        }
+        programLog.close();
+        paymentLog.close();
+        bookingStore.close();
     }
 
-    @Getter
-    @Setter
-    @AllArgsConstructor
-    private static class Payment {
-        private LocalDate date;
-        private String cnp;
-        private Integer sum;
-        private Integer location;
-        private Integer treatmentType;
-        private Hour treatmentTime;
+    private List<TimeInterval> getAllTimeIntervals(OverlapSweep overlaps) {
+        var timeIntervals = new ArrayList<TimeInterval>();
+        // the minute right after a reported interval has never been part of the next one, kept so reports stay the same
+        var skipFirstMinute = false;
+        for (int run = 0; run < overlaps.getRunCount(); run++) {
+            var start = overlaps.getRunStart(run) + (skipFirstMinute ? 1 : 0);
+            var end = overlaps.getRunEnd(run);
+            skipFirstMinute = false;
+            if (start > end || overlaps.getRunOverlap(run) == 0) {
+                continue;
+            }
+            timeIntervals.add(new TimeInterval(getHourFromMinutes(start), getHourFromMinutes(end), overlaps.getRunOverlap(run)));
+            skipFirstMinute = true;
+        }
+        return timeIntervals;
     }
 
     @Getter
@@ -449,12 +828,47 @@ public class MedicalServiceImpl {
 
     @AllArgsConstructor
     @Getter
-    @Setter
-    private static class Interval {
-        private String cnp;
-        private int location;
-        private int treatmentType;
-        private int minutesStart;
-        private int minutesEnd;
+    private static class BucketReport {
+        private static final BucketReport EMPTY = new BucketReport(0, 0, 0, "", "");
+
+        private final int bookingCount;
+        private final int bookedSum;
+        private final int unpaidSum;
+        // entries of the location's unpaid list, empty when everything was paid
+        private final String unpaidList;
+        private final String treatmentSection;
+    }
+
+    @AllArgsConstructor
+    @Getter
+    private static class LocationReport {
+        private final int bookingCount;
+        private final String text;
+    }
+
+    /**
+     * Verifies a range of locations, splitting it in halves down to single locations.
+     */
+    @AllArgsConstructor
+    private class LocationsTask extends RecursiveTask<List<LocationReport>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        @Override
+        protected List<LocationReport> compute() {
+            if (from >= to) {
+                return List.of();
+            }
+            if (to - from == 1) {
+                return List.of(verifyLocation(from));
+            }
+            var middle = (from + to) >>> 1;
+            var left = new LocationsTask(from, middle).fork();
+            var reports = new ArrayList<>(new LocationsTask(middle, to).compute());
+            reports.addAll(0, left.join());
+            return reports;
+        }
     }
 }
@@ -0,0 +1,85 @@
+package org.example.service;
+
+import java.util.Arrays;
+
+/**
+ * How many intervals overlap at each point of time, computed by sweeping over the sorted interval ends
+ * instead of counting every minute of every interval, so the cost doesn't depend on the interval lengths.
+ * The result is the list of runs between two consecutive ends, each with the number of intervals covering it,
+ * from the first start to the last end, gaps included.
+ */
+class OverlapSweep {
+
+    private final int[] runStarts;
+    private final int[] runEnds;
+    private final int[] runCounts;
+    private final int runCount;
+    private final int maximum;
+
+    /**
+     * @param starts first minute of each interval, sorted in place
+     * @param ends   last minute of each interval, included, sorted in place
+     * @param length number of intervals in the arrays
+     */
+    OverlapSweep(int[] starts, int[] ends, int length) {
+        Arrays.sort(starts, 0, length);
+        Arrays.sort(ends, 0, length);
+        // at most one run starts at each interval start and right after each interval end
+        runStarts = new int[2 * length];
+        runEnds = new int[2 * length];
+        runCounts = new int[2 * length];
+
+        int runs = 0;
+        int max = 0;
+        int count = 0;
+        int nextStart = 0;
+        int nextEnd = 0;
+        while (nextEnd < length) {
+            // the next point where the count changes: an interval starts there or the one before ended
+            var time = nextStart < length ? Math.min(starts[nextStart], ends[nextEnd] + 1) : ends[nextEnd] + 1;
+            while (nextStart < length && starts[nextStart] == time) {
+                count++;
+                nextStart++;
+            }
+            while (nextEnd < length && ends[nextEnd] + 1 == time) {
+                count--;
+                nextEnd++;
+            }
+            if (runs > 0) {
+                runEnds[runs - 1] = time - 1;
+                if (runCounts[runs - 1] == count) {
+                    continue;
+                }
+            }
+            if (nextEnd < length) {
+                runStarts[runs] = time;
+                runCounts[runs] = count;
+                runs++;
+                max = Math.max(max, count);
+            }
+        }
+        this.runCount = runs;
+        this.maximum = max;
+    }
+
+    int getMaximum() {
+        return maximum;
+    }
+
+    int getRunCount() {
+        return runCount;
+    }
+
+    int getRunStart(int run) {
+        return runStarts[run];
+    }
+
+    // included
+    int getRunEnd(int run) {
+        return runEnds[run];
+    }
+
+    int getRunOverlap(int run) {
+        return runCounts[run];
+    }
+}
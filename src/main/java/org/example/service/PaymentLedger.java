@@ -0,0 +1,29 @@
+package org.example.service;
+
+/**
+ * Running total of the payments made at each location since the start, kept in memory so the verification
+ * doesn't have to read the payment file. Not thread safe, the verification uses it under its lock,
+ * and the parallel verification uses each location from a single task.
+ */
+class PaymentLedger {
+
+    private final int[] totalByLocation;
+    private final int[] paymentCountByLocation;
+
+    PaymentLedger(int numberOfLocations) {
+        this.totalByLocation = new int[numberOfLocations];
+        this.paymentCountByLocation = new int[numberOfLocations];
+    }
+
+    void record(int location, int sum) {
+        totalByLocation[location] += sum;
+        paymentCountByLocation[location]++;
+    }
+
+    /**
+     * @return the total paid at the location, null if it had no payment
+     */
+    Integer getTotal(int location) {
+        return paymentCountByLocation[location] > 0 ? totalByLocation[location] : null;
+    }
+}
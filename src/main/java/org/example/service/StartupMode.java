@@ -0,0 +1,8 @@
+package org.example.service;
+
+public enum StartupMode {
+    // starts with no booking and empty files, the original behaviour
+    FRESH,
+    // takes back the bookings and payments of the program and payment files left by the previous run
+    REPLAY;
+}
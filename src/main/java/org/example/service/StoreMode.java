@@ -0,0 +1,9 @@
+package org.example.service;
+
+public enum StoreMode {
+    // on the heap, lost on restart, the original behaviour
+    HEAP,
+    // in a memory mapped file reopened on restart; the changes made with Durability.FSYNC are forced to disk,
+    // the others survive a crash of the process but not of the machine
+    MAPPED;
+}
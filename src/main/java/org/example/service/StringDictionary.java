@@ -0,0 +1,128 @@
+package org.example.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers the distinct strings seen, so records can keep an int instead of their own copy of a repeated string.
+ * Numbers start at 0 and are never reused. Lookups by string don't lock, adding a new string does.
+ * A dictionary opened on a file reloads the strings already in it and appends each new one, its UTF-8 length first
+ * so any character can be in it, before its number is returned. The appends reach the operating system at once and
+ * the disk on {@link #sync()}. A string cut by a crash was never numbered, so it is dropped on reload.
+ */
+class StringDictionary implements Closeable {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // strings by id, replaced by a bigger copy when full, guarded by this for writes
+    private volatile String[] strings = new String[1024];
+    private int size;
+    // null when kept in memory only
+    private final FileChannel channel;
+    private final DataOutputStream file;
+    // strings added since the last sync, guarded by this
+    private boolean dirty;
+
+    StringDictionary() {
+        this.channel = null;
+        this.file = null;
+    }
+
+    StringDictionary(Path path) throws IOException {
+        var length = Files.exists(path) ? load(path) : 0;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channel.truncate(length);
+        this.file = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    // returns the length of the whole strings in the file
+    private long load(Path path) throws IOException {
+        var size = Files.size(path);
+        long length = 0;
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                var stringLength = input.readInt();
+                if (stringLength < 0 || length + Integer.BYTES + stringLength > size) {
+                    return length;
+                }
+                var bytes = new byte[stringLength];
+                input.readFully(bytes);
+                put(new String(bytes, StandardCharsets.UTF_8));
+                length += Integer.BYTES + bytes.length;
+            }
+        } catch (EOFException e) {
+            return length;
+        }
+    }
+
+    int intern(String string) {
+        var id = ids.get(string);
+        return id != null ? id : add(string);
+    }
+
+    /**
+     * @param id a number returned by {@link #intern(String)}, that call happening before this one
+     */
+    String get(int id) {
+        return strings[id];
+    }
+
+    private synchronized int add(String string) {
+        var id = ids.get(string);
+        if (id != null) {
+            return id;
+        }
+        if (file != null) {
+            try {
+                var bytes = string.getBytes(StandardCharsets.UTF_8);
+                file.writeInt(bytes.length);
+                file.write(bytes);
+                file.flush();
+                dirty = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return put(string);
+    }
+
+    /**
+     * Forces the strings added so far to disk.
+     */
+    synchronized void sync() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    private int put(String string) {
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size] = string;
+        ids.put(string, size);
+        return size++;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.example.service;
+
+public enum VerificationMode {
+    // every location one after another on the verification thread
+    SEQUENTIAL,
+    // each location as its own fork/join task
+    PARALLEL;
+}
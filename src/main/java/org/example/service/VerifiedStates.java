@@ -0,0 +1,48 @@
+package org.example.service;
+
+import java.util.Arrays;
+
+/**
+ * State of each booking as last seen by the verification, by booking id. Only the verification uses it,
+ * the parallel verification from one task per location, and bookings of different locations never share an entry.
+ */
+class VerifiedStates {
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // replaced by a bigger copy when full, guarded by this for writes
+    private volatile byte[][] chunks = new byte[64][];
+
+    byte get(long bookingId) {
+        var chunk = chunk(bookingId);
+        return chunk == null ? BookingStore.NONE : chunk[(int) (bookingId & CHUNK_MASK)];
+    }
+
+    void set(long bookingId, byte state) {
+        var chunk = chunk(bookingId);
+        if (chunk == null) {
+            chunk = addChunk((int) (bookingId >>> CHUNK_BITS));
+        }
+        chunk[(int) (bookingId & CHUNK_MASK)] = state;
+    }
+
+    private byte[] chunk(long bookingId) {
+        var current = chunks;
+        var chunkIndex = bookingId >>> CHUNK_BITS;
+        return chunkIndex < current.length ? current[(int) chunkIndex] : null;
+    }
+
+    private synchronized byte[] addChunk(int chunkIndex) {
+        var current = chunks;
+        if (chunkIndex >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, chunkIndex + 1));
+        }
+        if (current[chunkIndex] == null) {
+            current[chunkIndex] = new byte[CHUNK_SIZE];
+        }
+        chunks = current;
+        return current[chunkIndex];
+    }
+}